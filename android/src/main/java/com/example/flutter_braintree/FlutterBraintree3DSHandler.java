@@ -1,130 +1,192 @@
 package com.example.flutter_braintree;
 
+import android.content.Context;
 import android.content.Intent;
-import android.util.Log;
+import android.os.Bundle;
 import androidx.annotation.NonNull;
 
 import com.braintreepayments.api.card.Card;
 import com.braintreepayments.api.card.CardClient;
+import com.braintreepayments.api.card.CardNonce;
 import com.braintreepayments.api.card.CardResult;
 import com.braintreepayments.api.threedsecure.ThreeDSecureClient;
-import com.braintreepayments.api.threedsecure.ThreeDSecureLauncher;
+import com.braintreepayments.api.threedsecure.ThreeDSecurePaymentAuthResult;
 import com.braintreepayments.api.threedsecure.ThreeDSecureRequest;
 import com.braintreepayments.api.threedsecure.ThreeDSecureResult;
 import com.braintreepayments.api.threedsecure.ThreeDSecurePaymentAuthRequest;
 import com.braintreepayments.api.threedsecure.ThreeDSecurePostalAddress;
 
-import java.util.HashMap;
 
 public class FlutterBraintree3DSHandler {
 
-    private final FlutterBraintreeCustom activity;
+    private final FlutterBraintreeFlowScope scope;
+    private final FlutterBraintreeLaunchers launchers;
+    private final Context context;
     private final Intent intent;
+    private final String authorization;
+    private final FlutterBraintreeClientRegistry clientRegistry;
     private final ThreeDSecureClient threeDSecureClient;
     private final CardClient cardClient;
-    private final ThreeDSecureLauncher threeDSecureLauncher;
 
-    public FlutterBraintree3DSHandler(FlutterBraintreeCustom activity) {
-        Log.d("FlutterBraintree3DSHandler", "FlutterBraintree3DSHandler");
+    public FlutterBraintree3DSHandler(FlutterBraintreeFlowScope scope, FlutterBraintreeLaunchers launchers) {
+        FlutterBraintreeLog.d("FlutterBraintree3DSHandler", "FlutterBraintree3DSHandler");
+
+        FlutterBraintreeHost host = scope.getHost();
+        this.scope = scope;
+        this.launchers = launchers;
+        this.context = host.getApplicationContext();
+        this.intent = host.getIntent();
+        this.authorization = intent.getStringExtra("authorization");
+        this.clientRegistry = FlutterBraintreeClientRegistry.getInstance(context);
+
+        // Reuse clients that already hold the gateway configuration for this authorization
+        this.cardClient = clientRegistry.getCardClient(authorization);
+        this.threeDSecureClient = clientRegistry.getThreeDSecureClient(authorization);
+        FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.CLIENT_CONSTRUCTED);
+
+        // The launcher belongs to the activity, this flow only receives its result while it lives
+        FlutterBraintreeLaunchers.ThreeDSecureTarget target = this::onThreeDSecureAuthResult;
+        launchers.setThreeDSecureTarget(target);
+        scope.onClose(() -> launchers.clearTargets(target, null));
+    }
 
-        this.activity = activity;
-        this.intent = activity.getIntent();
-        String authorization = intent.getStringExtra("authorization");
-        
-        // Initialize clients without BraintreeClient
-        this.cardClient = new CardClient(activity, authorization);
-        this.threeDSecureClient = new ThreeDSecureClient(activity, authorization);
-        
-        // Initialize launcher with callback
-        this.threeDSecureLauncher = new ThreeDSecureLauncher(activity, paymentAuthResult -> {
-            Log.d("FlutterBraintree3DSHandler", "ThreeDSecureLauncher paymentAuthResult = " + paymentAuthResult);
-            threeDSecureClient.tokenize(paymentAuthResult, result -> {
-                Log.d("FlutterBraintree3DSHandler", "ThreeDSecureLauncher result = " + result);
-                if (result instanceof ThreeDSecureResult.Success) {
-                    ThreeDSecureResult.Success success = (ThreeDSecureResult.Success) result;
-                    activity.onPaymentMethodNonceCreated(success.getNonce(), activity.createEmptyBillingAddress());
-                } 
-                else if (result instanceof ThreeDSecureResult.Failure) {
-                    ThreeDSecureResult.Failure failure = (ThreeDSecureResult.Failure) result;
-                    activity.onError(failure.getError());
-                }
-                else if (result instanceof ThreeDSecureResult.Cancel) {
-                    activity.onCancel();
-                }
-            });
+    private void onThreeDSecureAuthResult(ThreeDSecurePaymentAuthResult paymentAuthResult) {
+        FlutterBraintreeLog.d("FlutterBraintree3DSHandler", "ThreeDSecureLauncher paymentAuthResult =", paymentAuthResult.getClass());
+        FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.RETURNED_TO_APP);
+        FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.TOKENIZING);
+        threeDSecureClient.tokenize(paymentAuthResult, result -> {
+            FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.TOKENIZE_COMPLETE);
+            FlutterBraintreeLog.d("FlutterBraintree3DSHandler", "ThreeDSecureLauncher result =", result.getClass());
+            if (result instanceof ThreeDSecureResult.Success) {
+                ThreeDSecureResult.Success success = (ThreeDSecureResult.Success) result;
+                scope.deliver(host -> host.onPaymentMethodNonceCreated(success.getNonce()));
+            } 
+            else if (result instanceof ThreeDSecureResult.Failure) {
+                ThreeDSecureResult.Failure failure = (ThreeDSecureResult.Failure) result;
+                clientRegistry.onFailure(authorization, failure.getError());
+                scope.deliver(host -> host.onError(failure.getError()));
+            }
+            else if (result instanceof ThreeDSecureResult.Cancel) {
+                scope.deliver(FlutterBraintreeHost::onCancel);
+            }
         });
     }
 
     protected void tokenizeCreditCard() {
-        Log.d("FlutterBraintree3DSHandler", "tokenizeCreditCard");
+        FlutterBraintreeLog.d("FlutterBraintree3DSHandler", "tokenizeCreditCard");
 
-        Card card = new Card();
-        card.setExpirationMonth(intent.getStringExtra("expirationMonth"));
-        card.setExpirationYear(intent.getStringExtra("expirationYear"));
-        card.setCvv(intent.getStringExtra("cvv"));
-        card.setCardholderName(intent.getStringExtra("cardholderName"));
-        card.setNumber(intent.getStringExtra("cardNumber"));
+        tokenizeCard(nonce -> scope.deliver(host -> host.onPaymentMethodNonceCreated(nonce)));
+    }
 
-        cardClient.tokenize(card, (cardResult) -> {
-            Log.d("FlutterBraintree3DSHandler", "tokenizeCreditCard cardResult = " + cardResult);
-            if (cardResult instanceof CardResult.Success) {
-                activity.onPaymentMethodNonceCreated(((CardResult.Success) cardResult).getNonce(), activity.createEmptyBillingAddress());
-            } else if (cardResult instanceof CardResult.Failure) {
-                activity.onError(((CardResult.Failure) cardResult).getError());
-            }
-        });
+    /**
+     * Tokenizes the card and verifies the resulting nonce with 3DS in the same host,
+     * so the caller gets the verified nonce from a single activity launch.
+     */
+    public void tokenizeAndVerifyCard() {
+        FlutterBraintreeLog.d("FlutterBraintree3DSHandler", "tokenizeAndVerifyCard");
+
+        tokenizeCard(nonce -> verifyNonce(nonce.getString()));
+    }
+
+    private interface NonceCallback {
+        void onNonce(CardNonce nonce);
+    }
+
+    /** Tokenizes the card from the intent, retrying transient failures, and reports errors to the host. */
+    private void tokenizeCard(NonceCallback onNonce) {
+        FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.TOKENIZING);
+        Card card = createCard(intent);
+        FlutterBraintreeRetryPolicy.getInstance().execute(authorization, retryCallback ->
+            cardClient.tokenize(card, cardResult -> {
+                FlutterBraintreeLog.d("FlutterBraintree3DSHandler", "tokenizeCard cardResult =", cardResult.getClass());
+                if (cardResult instanceof CardResult.Success) {
+                    retryCallback.onSuccess(((CardResult.Success) cardResult).getNonce());
+                } else if (cardResult instanceof CardResult.Failure) {
+                    retryCallback.onFailure(((CardResult.Failure) cardResult).getError());
+                }
+            }), new FlutterBraintreeRetryPolicy.Callback<CardNonce>() {
+                @Override
+                public void onSuccess(CardNonce nonce) {
+                    FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.TOKENIZE_COMPLETE);
+                    onNonce.onNonce(nonce);
+                }
+
+                @Override
+                public void onFailure(Exception error) {
+                    FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.TOKENIZE_COMPLETE);
+                    clientRegistry.onFailure(authorization, error);
+                    scope.deliver(host -> host.onError(error));
+                }
+            });
     }
 
     public void startThreeDSecureFlow() {
-        Log.d("FlutterBraintree3DSHandler", "startThreeDSecureFlow");
+        FlutterBraintreeLog.d("FlutterBraintree3DSHandler", "startThreeDSecureFlow");
+        verifyNonce(intent.getStringExtra("nonce"));
+    }
 
-        ThreeDSecureRequest request = createThreeDSecureRequest(intent);
+    private void verifyNonce(String nonce) {
+        if (scope.isClosed()) return;
+        ThreeDSecureRequest request = createThreeDSecureRequest(intent, nonce);
 
-        threeDSecureClient.createPaymentAuthRequest(activity, request, paymentAuthRequest -> {
+        threeDSecureClient.createPaymentAuthRequest(context, request, paymentAuthRequest -> {
+            FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.AUTH_REQUEST_CREATED);
             if (paymentAuthRequest instanceof ThreeDSecurePaymentAuthRequest.ReadyToLaunch) {
-                Log.d("FlutterBraintree3DSHandler", "startThreeDSecureFlow ReadyToLaunch");
-                threeDSecureLauncher.launch(
+                FlutterBraintreeLog.d("FlutterBraintree3DSHandler", "verifyNonce ReadyToLaunch");
+                launchers.launchThreeDSecure(
                     (ThreeDSecurePaymentAuthRequest.ReadyToLaunch) paymentAuthRequest
                 );
+                FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.UI_LAUNCHED);
             }
             else if (paymentAuthRequest instanceof ThreeDSecurePaymentAuthRequest.LaunchNotRequired) {
-                Log.d("FlutterBraintree3DSHandler", "startThreeDSecureFlow LaunchNotRequired");
+                FlutterBraintreeLog.d("FlutterBraintree3DSHandler", "verifyNonce LaunchNotRequired");
                 // No additional authentication needed
                 ThreeDSecurePaymentAuthRequest.LaunchNotRequired noAuth = 
                     (ThreeDSecurePaymentAuthRequest.LaunchNotRequired) paymentAuthRequest;
-                activity.onPaymentMethodNonceCreated(noAuth.getNonce(), activity.createEmptyBillingAddress());
+                scope.deliver(host -> host.onPaymentMethodNonceCreated(noAuth.getNonce()));
             }
             else if (paymentAuthRequest instanceof ThreeDSecurePaymentAuthRequest.Failure) {
-                Log.d("FlutterBraintree3DSHandler", "startThreeDSecureFlow Failure");
-                activity.onError(((ThreeDSecurePaymentAuthRequest.Failure) paymentAuthRequest).getError());
+                FlutterBraintreeLog.d("FlutterBraintree3DSHandler", "verifyNonce Failure");
+                Exception error = ((ThreeDSecurePaymentAuthRequest.Failure) paymentAuthRequest).getError();
+                clientRegistry.onFailure(authorization, error);
+                scope.deliver(host -> host.onError(error));
             } else {
-                Log.d("FlutterBraintree3DSHandler", "startThreeDSecureFlow Unknown");
-                activity.onError(new Exception("startThreeDSecureFlow Unknown"));
+                FlutterBraintreeLog.d("FlutterBraintree3DSHandler", "verifyNonce Unknown");
+                scope.deliver(host -> host.onError(new Exception("startThreeDSecureFlow Unknown")));
             }
         });
     }
 
-    private ThreeDSecureRequest createThreeDSecureRequest(Intent intent) {
-        Log.d("FlutterBraintree3DSHandler", "createThreeDSecureRequest");
+    private Card createCard(Intent intent) {
+        Card card = new Card();
+        card.setExpirationMonth(intent.getStringExtra("expirationMonth"));
+        card.setExpirationYear(intent.getStringExtra("expirationYear"));
+        card.setCvv(intent.getStringExtra("cvv"));
+        card.setCardholderName(intent.getStringExtra("cardholderName"));
+        card.setNumber(intent.getStringExtra("cardNumber"));
+        return card;
+    }
+
+    private ThreeDSecureRequest createThreeDSecureRequest(Intent intent, String nonce) {
+        FlutterBraintreeLog.d("FlutterBraintree3DSHandler", "createThreeDSecureRequest");
 
         // Extract data from intent
-        String nonce = intent.getStringExtra("nonce");
         String amount = intent.getStringExtra("amount");
         String email = intent.getStringExtra("email");
-        Log.d("FlutterBraintree3DSHandler", "createThreeDSecureRequest nonce = " + nonce);
-        Log.d("FlutterBraintree3DSHandler", "createThreeDSecureRequest amount = " + amount);
-        Log.d("FlutterBraintree3DSHandler", "createThreeDSecureRequest email = " + email);
-
-        HashMap<String, String> billingAddressMap = (HashMap<String, String>) intent.getSerializableExtra("billingAddress");
-        String surname = billingAddressMap.get("surname");
-        String givenName = billingAddressMap.get("givenName");
-        String phoneNumber = billingAddressMap.get("phoneNumber");
-        String streetAddress = billingAddressMap.get("streetAddress");
-        String extendedAddress = billingAddressMap.get("extendedAddress");
-        String locality = billingAddressMap.get("locality");
-        String region = billingAddressMap.get("region");
-        String postalCode = billingAddressMap.get("postalCode");
-        String countryCodeAlpha2 = billingAddressMap.get("countryCodeAlpha2");
+
+        Bundle billingAddressBundle = intent.getBundleExtra("billingAddress");
+        if (billingAddressBundle == null) {
+            billingAddressBundle = new Bundle();
+        }
+        String surname = billingAddressBundle.getString("surname");
+        String givenName = billingAddressBundle.getString("givenName");
+        String phoneNumber = billingAddressBundle.getString("phoneNumber");
+        String streetAddress = billingAddressBundle.getString("streetAddress");
+        String extendedAddress = billingAddressBundle.getString("extendedAddress");
+        String locality = billingAddressBundle.getString("locality");
+        String region = billingAddressBundle.getString("region");
+        String postalCode = billingAddressBundle.getString("postalCode");
+        String countryCodeAlpha2 = billingAddressBundle.getString("countryCodeAlpha2");
 
         ThreeDSecurePostalAddress billingAddress = new ThreeDSecurePostalAddress();
         billingAddress.setGivenName(givenName);
@@ -145,7 +207,6 @@ public class FlutterBraintree3DSHandler {
         request.setChallengeRequested(true);
         request.setDataOnlyRequested(false);
 
-        Log.d("FlutterBraintree3DSHandler", "createThreeDSecureRequest request = " + request);
         
         return request;
     }
@@ -0,0 +1,183 @@
+package com.example.flutter_braintree;
+
+import android.content.Context;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Card brand lookup by BIN, without a gateway round trip.
+ *
+ * The ranges bundled in {@link #ASSET_PATH} are loaded the first time a lookup is made and
+ * kept as parallel sorted arrays, each range widened to {@link #KEY_DIGITS} digits. Ranges
+ * may overlap: a narrower range takes precedence over the wider one it sits in, so a short
+ * fallback such as {@code 62} can carry more specific co-brand ranges. Overlaps are
+ * resolved once at load time into disjoint segments, and a lookup is a binary search over
+ * the segment starts, so it allocates nothing and takes microseconds. Partial input is only
+ * resolved once every number it can still become falls in one segment, so it does not
+ * report a brand it may not turn out to be.
+ */
+public final class FlutterBraintreeBinIndex {
+
+    static final String ASSET_PATH = "flutter_braintree/bin_ranges.csv";
+    static final int KEY_DIGITS = 8;
+
+    private static final int[] POWERS_OF_TEN = {
+        1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000};
+
+    private static FlutterBraintreeBinIndex instance;
+
+    private final Context applicationContext;
+    private volatile boolean loaded = false;
+    private int[] starts = new int[0];
+    private int[] ends = new int[0];
+    private byte[] brandIndexes = new byte[0];
+    private String[] brands = new String[0];
+
+    private FlutterBraintreeBinIndex(Context context) {
+        this.applicationContext = context.getApplicationContext();
+    }
+
+    public static synchronized FlutterBraintreeBinIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new FlutterBraintreeBinIndex(context);
+        }
+        return instance;
+    }
+
+    /** Returns the brand for the card number typed so far, or null if it is not known yet. */
+    public String lookup(String cardNumber) {
+        if (cardNumber == null) return null;
+        if (!loaded) {
+            ensureLoaded();
+        }
+        int key = 0;
+        int digits = 0;
+        for (int i = 0; i < cardNumber.length() && digits < KEY_DIGITS; i++) {
+            char c = cardNumber.charAt(i);
+            if (c == ' ' || c == '-') continue;
+            if (c < '0' || c > '9') return null;
+            key = key * 10 + (c - '0');
+            digits++;
+        }
+        if (digits == 0) return null;
+        int span = POWERS_OF_TEN[KEY_DIGITS - digits];
+        key *= span;
+
+        int low = 0;
+        int high = starts.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= key) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (found < 0 || key + span - 1 > ends[found]) return null;
+        return brands[brandIndexes[found]];
+    }
+
+    private synchronized void ensureLoaded() {
+        if (loaded) return;
+        List<int[]> ranges = new ArrayList<>();
+        List<String> brandNames = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                applicationContext.getAssets().open(ASSET_PATH), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split(",", 3);
+                if (parts.length != 3) {
+                    FlutterBraintreeLog.w("FlutterBraintreeBinIndex", "Ignoring malformed line", line);
+                    continue;
+                }
+                String brand = parts[2].trim();
+                int brandIndex = brandNames.indexOf(brand);
+                if (brandIndex < 0) {
+                    brandIndex = brandNames.size();
+                    brandNames.add(brand);
+                }
+                ranges.add(new int[] {widen(parts[0].trim(), '0'), widen(parts[1].trim(), '9'), brandIndex});
+            }
+        } catch (IOException | NumberFormatException e) {
+            FlutterBraintreeLog.w("FlutterBraintreeBinIndex", "BIN ranges unavailable", e);
+            ranges.clear();
+        }
+        List<int[]> segments = flatten(ranges);
+
+        int size = segments.size();
+        int[] newStarts = new int[size];
+        int[] newEnds = new int[size];
+        byte[] newBrandIndexes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            int[] segment = segments.get(i);
+            newStarts[i] = segment[0];
+            newEnds[i] = segment[1];
+            newBrandIndexes[i] = (byte) segment[2];
+        }
+        starts = newStarts;
+        ends = newEnds;
+        brandIndexes = newBrandIndexes;
+        brands = brandNames.toArray(new String[0]);
+        loaded = true;
+        FlutterBraintreeLog.d("FlutterBraintreeBinIndex", "loaded ranges:", size);
+    }
+
+    /**
+     * Resolves {@code {start, end, brandIndex}} ranges into sorted disjoint segments. Ranges
+     * are laid down widest first, each one overwriting what it covers, so the narrowest
+     * range wins wherever two overlap. Adjacent segments of the same brand are merged.
+     */
+    static List<int[]> flatten(List<int[]> ranges) {
+        List<int[]> byWidth = new ArrayList<>(ranges);
+        byWidth.sort(Comparator.comparingLong((int[] range) -> (long) range[0] - range[1]));
+        List<int[]> segments = new ArrayList<>();
+        for (int[] range : byWidth) {
+            List<int[]> next = new ArrayList<>(segments.size() + 2);
+            for (int[] segment : segments) {
+                if (segment[1] < range[0] || segment[0] > range[1]) {
+                    next.add(segment);
+                    continue;
+                }
+                if (segment[0] < range[0]) {
+                    next.add(new int[] {segment[0], range[0] - 1, segment[2]});
+                }
+                if (segment[1] > range[1]) {
+                    next.add(new int[] {range[1] + 1, segment[1], segment[2]});
+                }
+            }
+            next.add(new int[] {range[0], range[1], range[2]});
+            segments = next;
+        }
+        segments.sort(Comparator.comparingInt(segment -> segment[0]));
+
+        List<int[]> merged = new ArrayList<>(segments.size());
+        for (int[] segment : segments) {
+            int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && last[2] == segment[2] && last[1] + 1 == segment[0]) {
+                last[1] = segment[1];
+            } else {
+                merged.add(segment);
+            }
+        }
+        return merged;
+    }
+
+    /** Pads a BIN prefix to {@link #KEY_DIGITS} digits with {@code fill}. */
+    private static int widen(String prefix, char fill) {
+        char[] digits = new char[KEY_DIGITS];
+        Arrays.fill(digits, fill);
+        prefix.getChars(0, Math.min(prefix.length(), KEY_DIGITS), digits, 0);
+        return Integer.parseInt(new String(digits));
+    }
+}
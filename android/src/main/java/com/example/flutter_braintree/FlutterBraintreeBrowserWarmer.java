@@ -0,0 +1,88 @@
+package com.example.flutter_braintree;
+
+import android.content.ComponentName;
+import android.content.Context;
+
+import androidx.browser.customtabs.CustomTabsClient;
+import androidx.browser.customtabs.CustomTabsServiceConnection;
+
+/**
+ * Starts the Custom Tabs browser ahead of a browser switch, for one flow.
+ *
+ * Binding the browser's Custom Tabs service and calling {@code warmup} starts its process
+ * while the auth request is still being created. Only the warmup applies: the tab is
+ * opened by {@code PayPalLauncher} through browser-switch, which builds its own intent
+ * without a session of ours, so a {@code mayLaunchUrl} hint would go to a session that
+ * never opens it. The connection lives as long as the flow and is released by
+ * {@link #unbind}. A browser without Custom Tabs support just opens cold as before.
+ */
+final class FlutterBraintreeBrowserWarmer {
+
+    interface BindCallback {
+        void onBound(boolean warmed);
+    }
+
+    private final Context applicationContext;
+    private CustomTabsServiceConnection connection;
+
+    FlutterBraintreeBrowserWarmer(Context context) {
+        this.applicationContext = context.getApplicationContext();
+    }
+
+    /** Binds the default Custom Tabs browser and warms it up. Reports false if there is none. */
+    void bind(BindCallback callback) {
+        String packageName = CustomTabsClient.getPackageName(applicationContext, null);
+        if (packageName == null) {
+            FlutterBraintreeLog.d("FlutterBraintreeBrowserWarmer", "no Custom Tabs browser");
+            callback.onBound(false);
+            return;
+        }
+        CustomTabsServiceConnection newConnection = new CustomTabsServiceConnection() {
+            @Override
+            public void onCustomTabsServiceConnected(ComponentName name, CustomTabsClient client) {
+                synchronized (FlutterBraintreeBrowserWarmer.this) {
+                    if (connection != this) return;
+                }
+                boolean warmed = client.warmup(0);
+                FlutterBraintreeLog.d("FlutterBraintreeBrowserWarmer", "connected, warmed =", warmed);
+                callback.onBound(warmed);
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {
+                FlutterBraintreeLog.d("FlutterBraintreeBrowserWarmer", "disconnected");
+            }
+        };
+        synchronized (this) {
+            connection = newConnection;
+        }
+        boolean bound;
+        try {
+            bound = CustomTabsClient.bindCustomTabsService(applicationContext, packageName, newConnection);
+        } catch (SecurityException e) {
+            FlutterBraintreeLog.w("FlutterBraintreeBrowserWarmer", "bind refused:", e.getMessage());
+            bound = false;
+        }
+        if (!bound) {
+            synchronized (this) {
+                connection = null;
+            }
+            callback.onBound(false);
+        }
+    }
+
+    /** Releases the connection. Safe to call more than once. */
+    void unbind() {
+        CustomTabsServiceConnection current;
+        synchronized (this) {
+            current = connection;
+            connection = null;
+        }
+        if (current == null) return;
+        try {
+            applicationContext.unbindService(current);
+        } catch (IllegalArgumentException e) {
+            FlutterBraintreeLog.w("FlutterBraintreeBrowserWarmer", "unbind of a lost connection:", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.flutter_braintree;
+
+import java.util.Map;
+
+import com.braintreepayments.api.card.Card;
+
+/**
+ * Card details of a tokenize call, decoded once by {@link FlutterBraintreeMessageCodec} or,
+ * for callers that still send a plain map, by {@link #from}.
+ */
+final class FlutterBraintreeCardRequest {
+
+    final String cardNumber;
+    final String expirationMonth;
+    final String expirationYear;
+    final String cvv;
+    final String cardholderName;
+
+    FlutterBraintreeCardRequest(String cardNumber, String expirationMonth, String expirationYear, String cvv,
+                                String cardholderName) {
+        this.cardNumber = cardNumber;
+        this.expirationMonth = expirationMonth;
+        this.expirationYear = expirationYear;
+        this.cvv = cvv;
+        this.cardholderName = cardholderName;
+    }
+
+    /**
+     * Returns {@code value} as a card request, converting a map with the Dart field names.
+     *
+     * @throws IllegalArgumentException if {@code value} is neither, or a field is not a string
+     */
+    static FlutterBraintreeCardRequest from(Object value) {
+        if (value instanceof FlutterBraintreeCardRequest) {
+            return (FlutterBraintreeCardRequest) value;
+        }
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Card request is missing or malformed");
+        }
+        Map map = (Map) value;
+        return new FlutterBraintreeCardRequest(
+            stringField(map, "cardNumber"),
+            stringField(map, "expirationMonth"),
+            stringField(map, "expirationYear"),
+            stringField(map, "cvv"),
+            stringField(map, "cardholderName"));
+    }
+
+    Card toCard() {
+        Card card = new Card();
+        card.setExpirationMonth(expirationMonth);
+        card.setExpirationYear(expirationYear);
+        card.setCvv(cvv);
+        card.setCardholderName(cardholderName);
+        card.setNumber(cardNumber);
+        return card;
+    }
+
+    private static String stringField(Map map, String key) {
+        Object value = map.get(key);
+        if (value != null && !(value instanceof String)) {
+            throw new IllegalArgumentException("Card request field " + key + " must be a string");
+        }
+        return (String) value;
+    }
+}
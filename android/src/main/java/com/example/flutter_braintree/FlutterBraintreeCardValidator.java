@@ -0,0 +1,225 @@
+package com.example.flutter_braintree;
+
+import java.util.Calendar;
+import java.util.HashMap;
+
+/**
+ * Checks card details locally before anything is sent to the gateway: the number's
+ * checksum and length for its brand, the expiry window and the CVV length for the brand.
+ * The brand comes from {@link FlutterBraintreeBinIndex}; a brand without rules here is
+ * checked with the generic ones.
+ *
+ * Errors are reported per field as short codes, so Dart can show them next to the input
+ * while the user types. The checks are deliberately lenient where brands disagree, the
+ * gateway stays the final authority: length tables cover each network's full range, and
+ * only {@link #blockingErrors} - a missing or malformed number, a failed checksum and the
+ * expiry - stop a card from being tokenized. Length and CVV codes are advisory.
+ */
+final class FlutterBraintreeCardValidator {
+
+    static final String CARD_NUMBER = "cardNumber";
+    static final String EXPIRATION_MONTH = "expirationMonth";
+    static final String EXPIRATION_YEAR = "expirationYear";
+    static final String CVV = "cvv";
+
+    static final String REQUIRED = "required";
+    static final String INVALID = "invalid";
+    static final String LENGTH = "length";
+    static final String CHECKSUM = "checksum";
+    static final String EXPIRED = "expired";
+
+    static final int MAX_YEARS_AHEAD = 20;
+
+    private static final HashMap<String, Brand> BRANDS = new HashMap<>();
+
+    static {
+        addBrand(new Brand("American Express", new int[] {15}, 4, true));
+        addBrand(new Brand("Diners Club", new int[] {14, 15, 16, 17, 18, 19}, 3, true));
+        addBrand(new Brand("JCB", new int[] {16, 17, 18, 19}, 3, true));
+        addBrand(new Brand("Visa", new int[] {13, 14, 15, 16, 17, 18, 19}, 3, true));
+        addBrand(new Brand("MasterCard", new int[] {16, 17, 18, 19}, 3, true));
+        addBrand(new Brand("Discover", new int[] {16, 17, 18, 19}, 3, true));
+        // Not every UnionPay number carries a valid check digit
+        addBrand(new Brand("UnionPay", new int[] {14, 15, 16, 17, 18, 19}, 3, false));
+        addBrand(new Brand("Maestro", new int[] {12, 13, 14, 15, 16, 17, 18, 19}, 3, true));
+        addBrand(new Brand("Elo", new int[] {16}, 3, true));
+    }
+
+    private static final int MIN_UNKNOWN_LENGTH = 12;
+    private static final int MAX_UNKNOWN_LENGTH = 19;
+
+    private FlutterBraintreeCardValidator() {
+    }
+
+    private static void addBrand(Brand brand) {
+        BRANDS.put(brand.name, brand);
+    }
+
+    /** Returns {@code {brand, errors}} for {@code card}, the shape Dart reads. */
+    static HashMap<String, Object> validate(FlutterBraintreeCardRequest card, FlutterBraintreeBinIndex binIndex) {
+        HashMap<String, Object> validation = new HashMap<>();
+        validation.put("brand", binIndex.lookup(card.cardNumber));
+        validation.put("errors", errors(card, binIndex));
+        return validation;
+    }
+
+    /** Returns the field errors for {@code card}, empty if it looks valid. */
+    static HashMap<String, String> errors(FlutterBraintreeCardRequest card, FlutterBraintreeBinIndex binIndex) {
+        HashMap<String, String> errors = new HashMap<>();
+        String number = normalizeNumber(trimmed(card.cardNumber));
+        Brand brand = brandOf(number, binIndex);
+        validateNumber(number, brand, errors);
+        validateExpiry(trimmed(card.expirationMonth), trimmed(card.expirationYear), errors);
+        validateCvv(trimmed(card.cvv), brand, errors);
+        return errors;
+    }
+
+    /**
+     * Returns the errors that fail a tokenization before it reaches the gateway: only the
+     * ones no card the gateway accepts can have. Brand lengths and the CVV are left to it.
+     */
+    static HashMap<String, String> blockingErrors(FlutterBraintreeCardRequest card, FlutterBraintreeBinIndex binIndex) {
+        HashMap<String, String> errors = new HashMap<>();
+        String number = normalizeNumber(trimmed(card.cardNumber));
+        Brand brand = brandOf(number, binIndex);
+        if (number.isEmpty()) {
+            errors.put(CARD_NUMBER, REQUIRED);
+        } else if (!isDigits(number)) {
+            errors.put(CARD_NUMBER, INVALID);
+        } else if ((brand == null || brand.luhn) && !passesLuhn(number)) {
+            errors.put(CARD_NUMBER, CHECKSUM);
+        }
+        validateExpiry(trimmed(card.expirationMonth), trimmed(card.expirationYear), errors);
+        return errors;
+    }
+
+    private static Brand brandOf(String number, FlutterBraintreeBinIndex binIndex) {
+        String brandName = binIndex.lookup(number);
+        return brandName == null ? null : BRANDS.get(brandName);
+    }
+
+    private static void validateNumber(String number, Brand brand, HashMap<String, String> errors) {
+        if (number.isEmpty()) {
+            errors.put(CARD_NUMBER, REQUIRED);
+        } else if (!isDigits(number)) {
+            errors.put(CARD_NUMBER, INVALID);
+        } else if (brand == null ? number.length() < MIN_UNKNOWN_LENGTH || number.length() > MAX_UNKNOWN_LENGTH
+                                 : !brand.acceptsLength(number.length())) {
+            errors.put(CARD_NUMBER, LENGTH);
+        } else if ((brand == null || brand.luhn) && !passesLuhn(number)) {
+            errors.put(CARD_NUMBER, CHECKSUM);
+        }
+    }
+
+    private static void validateExpiry(String monthValue, String yearValue, HashMap<String, String> errors) {
+        int month = -1;
+        if (monthValue.isEmpty()) {
+            errors.put(EXPIRATION_MONTH, REQUIRED);
+        } else if (!isDigits(monthValue) || monthValue.length() > 2
+                || (month = Integer.parseInt(monthValue)) < 1 || month > 12) {
+            errors.put(EXPIRATION_MONTH, INVALID);
+            month = -1;
+        }
+
+        int year = -1;
+        if (yearValue.isEmpty()) {
+            errors.put(EXPIRATION_YEAR, REQUIRED);
+        } else if (!isDigits(yearValue) || (yearValue.length() != 2 && yearValue.length() != 4)) {
+            errors.put(EXPIRATION_YEAR, INVALID);
+        } else {
+            year = Integer.parseInt(yearValue);
+            if (yearValue.length() == 2) {
+                year += 2000;
+            }
+        }
+        if (year < 0) return;
+
+        Calendar now = Calendar.getInstance();
+        int currentYear = now.get(Calendar.YEAR);
+        if (year < currentYear) {
+            errors.put(EXPIRATION_YEAR, EXPIRED);
+        } else if (year > currentYear + MAX_YEARS_AHEAD) {
+            errors.put(EXPIRATION_YEAR, INVALID);
+        } else if (year == currentYear && month > 0 && month < now.get(Calendar.MONTH) + 1) {
+            // A card is valid through the last day of its expiry month
+            errors.put(EXPIRATION_MONTH, EXPIRED);
+        }
+    }
+
+    /** An empty CVV is left to the gateway, merchants may not require one. */
+    private static void validateCvv(String cvv, Brand brand, HashMap<String, String> errors) {
+        if (cvv.isEmpty()) return;
+        if (!isDigits(cvv)) {
+            errors.put(CVV, INVALID);
+        } else if (brand == null ? cvv.length() != 3 && cvv.length() != 4 : cvv.length() != brand.cvvLength) {
+            errors.put(CVV, LENGTH);
+        }
+    }
+
+    static boolean passesLuhn(String number) {
+        int sum = 0;
+        boolean doubled = false;
+        for (int i = number.length() - 1; i >= 0; i--) {
+            int digit = number.charAt(i) - '0';
+            if (doubled) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubled = !doubled;
+        }
+        return sum % 10 == 0;
+    }
+
+    /** Drops the spaces and dashes card numbers are commonly typed with. */
+    static String normalizeNumber(String number) {
+        StringBuilder sb = new StringBuilder(number.length());
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c != ' ' && c != '-') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isDigits(String value) {
+        if (value.isEmpty()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String trimmed(String value) {
+        return value == null ? "" : value.trim();
+    }
+
+    static final class Brand {
+        final String name;
+        final int[] lengths;
+        final int cvvLength;
+        final boolean luhn;
+
+        Brand(String name, int[] lengths, int cvvLength, boolean luhn) {
+            this.name = name;
+            this.lengths = lengths;
+            this.cvvLength = cvvLength;
+            this.luhn = luhn;
+        }
+
+        boolean acceptsLength(int length) {
+            for (int accepted : lengths) {
+                if (accepted == length) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.flutter_braintree;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.braintreepayments.api.card.CardClient;
+import com.braintreepayments.api.core.AuthenticationException;
+import com.braintreepayments.api.core.AuthorizationException;
+import com.braintreepayments.api.googlepay.GooglePayClient;
+import com.braintreepayments.api.paypal.PayPalClient;
+import com.braintreepayments.api.threedsecure.ThreeDSecureClient;
+
+/**
+ * Process-wide cache of Braintree clients keyed by authorization string.
+ *
+ * Each client fetches the gateway configuration on first use, so handing out the
+ * same instance for repeat payments keeps that configuration warm. The registry
+ * holds at most {@link #MAX_AUTHORIZATIONS} authorizations and evicts the least
+ * recently used one. Clients are built on the application context so they never
+ * retain an activity.
+ */
+public final class FlutterBraintreeClientRegistry {
+
+    static final int MAX_AUTHORIZATIONS = 4;
+
+    private static FlutterBraintreeClientRegistry instance;
+
+    private final Context applicationContext;
+    private final LinkedHashMap<String, Clients> clients =
+        new LinkedHashMap<String, Clients>(MAX_AUTHORIZATIONS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Clients> eldest) {
+                return size() > MAX_AUTHORIZATIONS;
+            }
+        };
+
+    private FlutterBraintreeClientRegistry(Context context) {
+        this.applicationContext = context.getApplicationContext();
+    }
+
+    public static synchronized FlutterBraintreeClientRegistry getInstance(Context context) {
+        if (instance == null) {
+            instance = new FlutterBraintreeClientRegistry(context);
+        }
+        return instance;
+    }
+
+    public synchronized CardClient getCardClient(String authorization) {
+        Clients entry = entryFor(authorization);
+        if (entry.cardClient == null) {
+            entry.cardClient = new CardClient(applicationContext, authorization);
+        }
+        return entry.cardClient;
+    }
+
+    public synchronized ThreeDSecureClient getThreeDSecureClient(String authorization) {
+        Clients entry = entryFor(authorization);
+        if (entry.threeDSecureClient == null) {
+            entry.threeDSecureClient = new ThreeDSecureClient(applicationContext, authorization);
+        }
+        return entry.threeDSecureClient;
+    }
+
+    public synchronized GooglePayClient getGooglePayClient(String authorization) {
+        Clients entry = entryFor(authorization);
+        if (entry.googlePayClient == null) {
+            entry.googlePayClient = new GooglePayClient(applicationContext, authorization);
+        }
+        return entry.googlePayClient;
+    }
+
+    public synchronized PayPalClient getPayPalClient(String authorization, String returnUrl) {
+        Clients entry = entryFor(authorization);
+        PayPalClient payPalClient = entry.payPalClients.get(returnUrl);
+        if (payPalClient == null) {
+            payPalClient = new PayPalClient(applicationContext, authorization, Uri.parse(returnUrl));
+            entry.payPalClients.put(returnUrl, payPalClient);
+        }
+        return payPalClient;
+    }
+
+    /**
+     * Drops the clients for an authorization that has been replaced or revoked.
+     */
+    public synchronized void invalidate(String authorization) {
+        if (authorization != null && clients.remove(authorization) != null) {
+            FlutterBraintreeLog.d("FlutterBraintreeClientRegistry", "invalidated clients for authorization");
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        clients.clear();
+    }
+
+    /**
+     * Invalidates the authorization if the gateway rejected it, so the next call
+     * builds fresh clients instead of reusing a stale configuration.
+     */
+    public void onFailure(String authorization, Exception error) {
+        if (error instanceof AuthorizationException || error instanceof AuthenticationException) {
+            invalidate(authorization);
+        }
+    }
+
+    private Clients entryFor(String authorization) {
+        Clients entry = clients.get(authorization);
+        if (entry == null) {
+            entry = new Clients();
+            clients.put(authorization, entry);
+        }
+        return entry;
+    }
+
+    private static class Clients {
+        CardClient cardClient;
+        ThreeDSecureClient threeDSecureClient;
+        GooglePayClient googlePayClient;
+        final HashMap<String, PayPalClient> payPalClients = new HashMap<>();
+    }
+}
@@ -3,125 +3,114 @@ package com.example.flutter_braintree;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
-import android.util.Log;
 
-import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
+import androidx.activity.ComponentActivity;
 import androidx.appcompat.app.AppCompatActivity;
 
-import android.content.Intent;
-import android.os.Bundle;
-import android.util.Log;
-
 import com.braintreepayments.api.core.PaymentMethodNonce;
-import com.braintreepayments.api.card.CardNonce;
-import com.braintreepayments.api.paypal.PayPalAccountNonce;
-import com.braintreepayments.api.googlepay.GooglePayCardNonce;
-import com.braintreepayments.api.core.PostalAddress;
-import com.braintreepayments.api.datacollector.DataCollector;
-import com.braintreepayments.api.datacollector.DataCollectorRequest;
-import com.braintreepayments.api.datacollector.DataCollectorResult;
 
-import java.util.HashMap;
+public class FlutterBraintreeCustom extends AppCompatActivity implements FlutterBraintreeHost {
 
-public class FlutterBraintreeCustom extends AppCompatActivity {
+    static final int RESULT_ERROR = 2;
 
-    private Boolean started = false;
-    private long creationTimestamp = -1;
-    private String deviceData;
+    private int requestId = -1;
+    private String launchId;
     private String authorization;
+    private int fields = FlutterBraintreeNonceResult.ALL_FIELDS;
+    private String binBrand;
     
     private FlutterBraintreePayPalHandler payPalHandler;
     private FlutterBraintree3DSHandler treeDSHandler;
     private FlutterBraintreeGooglePayHandler googlePayHandler;
-    private DataCollector dataCollector;
+    private FlutterBraintreeDeviceDataCache deviceDataCache;
+    private FlutterBraintreeFlowScope scope;
+    private FlutterBraintreeLaunchers launchers;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        Log.d("FlutterBraintreeCustom", "onCreate with intent: " + getIntent());
-        handleIntent(getIntent());
+        FlutterBraintreeLog.d("FlutterBraintreeCustom", "onCreate");
+        Intent intent = getIntent();
+        // Read before the intent is dispatched, a cancel reply must carry the request id
+        requestId = intent.getIntExtra("requestId", -1);
+        launchId = intent.getStringExtra("launchId");
+        if (handleIntent(intent)) {
+            return;
+        }
 
-        creationTimestamp = System.currentTimeMillis();
-  
         try {
-            Intent intent = getIntent();
+            scope = new FlutterBraintreeFlowScope(this);
+            launchers = new FlutterBraintreeLaunchers();
+            launchers.register(this);
+            FlutterBraintreeTracer.mark(requestId, FlutterBraintreeTracer.ACTIVITY_CREATED);
 
             authorization = intent.getStringExtra("authorization");
+            fields = intent.getIntExtra("fields", FlutterBraintreeNonceResult.ALL_FIELDS);
+            // Already loaded by the plugin's card validation, so this is a plain array search
+            binBrand = FlutterBraintreeBinIndex.getInstance(this).lookup(intent.getStringExtra("cardNumber"));
             // if (authorization == null || authorization.isEmpty()) {
             //     throw new Exception("Authorization is required");
             // }
 
             String returnUrlScheme = (getPackageName() + ".return.from.braintree").replace("_", "").toLowerCase();
-            Log.d("FlutterBraintreeCustom", "returnUrlScheme = " + returnUrlScheme);
+            FlutterBraintreeLog.d("FlutterBraintreeCustom", "returnUrlScheme =", returnUrlScheme);
             
             String type = intent.getStringExtra("type");
             setContentView(R.layout.activity_flutter_braintree_custom);
-            Log.d("FlutterBraintreeCustom", "type = " + type);
+            FlutterBraintreeLog.d("FlutterBraintreeCustom", "type =", type);
             
-            // Initialize DataCollector with authorization as per v5 requirements
-            dataCollector = new DataCollector(this, authorization);
-            DataCollectorRequest request = new DataCollectorRequest(true);
-            dataCollector.collectDeviceData(this, request, result -> {
-                if (result instanceof DataCollectorResult.Success) {
-                    FlutterBraintreeCustom.this.deviceData = ((DataCollectorResult.Success) result).getDeviceData();
-                } else if (result instanceof DataCollectorResult.Failure) {
-                    Log.e("FlutterBraintreeCustom", "Error collecting device data: " +
-                        ((DataCollectorResult.Failure) result).getError().getMessage());
-                    deviceData = null;
-                }
-            });
-            Log.d("FlutterBraintreeCustom", "Device data collected successfully " + deviceData);
+            // Joins the collection the plugin started when the call arrived, if any
+            deviceDataCache = FlutterBraintreeDeviceDataCache.getInstance(this);
+            deviceDataCache.prefetch(authorization);
 
             if (type.equals("tokenizeCreditCard")) {
-                treeDSHandler = new FlutterBraintree3DSHandler(this);
+                treeDSHandler = new FlutterBraintree3DSHandler(scope, launchers);
                 treeDSHandler.tokenizeCreditCard();
+            } else if (type.equals("tokenizeAndVerifyCard")) {
+                treeDSHandler = new FlutterBraintree3DSHandler(scope, launchers);
+                treeDSHandler.tokenizeAndVerifyCard();
             } else if (type.equals("requestPaypalNonce")) {
-                payPalHandler = new FlutterBraintreePayPalHandler(this);
+                payPalHandler = new FlutterBraintreePayPalHandler(scope);
                 payPalHandler.requestPaypalNonce(intent);
             } else if (type.equals("startThreeDSecureFlow")) {
-                treeDSHandler = new FlutterBraintree3DSHandler(this);
+                treeDSHandler = new FlutterBraintree3DSHandler(scope, launchers);
                 treeDSHandler.startThreeDSecureFlow();
             } else if (type.equals("startGooglePaymentFlow")) {
-                googlePayHandler = new FlutterBraintreeGooglePayHandler(this);
+                googlePayHandler = new FlutterBraintreeGooglePayHandler(scope, launchers);
                 googlePayHandler.startGooglePaymentFlow(intent);
-            } else if (type.equals("checkGooglePayReady")) {
-                googlePayHandler = new FlutterBraintreeGooglePayHandler(this);
-                googlePayHandler.checkGooglePayReady();
             } else {
                 throw new Exception("Invalid request type: " + type);
             }
             
         } catch (Exception e) {
-            Intent result = new Intent();
-            result.putExtra("error", e);
-            setResult(2, result);
-            finish();
-            return;
+            onError(e);
         }
     }
 
-    private void handleIntent(Intent intent) {
-        Log.d("FlutterBraintreeCustom", "handleIntent: " + intent);
+    /** Handles a cancel deep link, returns true if the activity is finishing because of it. */
+    private boolean handleIntent(Intent intent) {
+        FlutterBraintreeLog.d("FlutterBraintreeCustom", "handleIntent");
         if (intent != null) {
             String action = intent.getAction();
             Uri data = intent.getData();
-            Log.d("FlutterBraintreeCustom", "Action: " + action + ", Data: " + data);
+            FlutterBraintreeLog.d("FlutterBraintreeCustom", "Action:", action);
             
             if (Intent.ACTION_VIEW.equals(action) && data != null) {
                 // This is a deep link
                 if (data.getPath() != null && data.getPath().contains("cancel")) {
+                    FlutterBraintreePayPalPendingStore.getInstance(this).remove(launchId);
                     onCancel();
                     finish();
-                    return;
+                    return true;
                 }
             }
         }
+        return false;
     }
 
     @Override
     protected void onNewIntent(Intent newIntent) {
-        Log.d("FlutterBraintreeCustom", "onNewIntent");
+        FlutterBraintreeLog.d("FlutterBraintreeCustom", "onNewIntent");
         super.onNewIntent(newIntent);
         setIntent(newIntent);
         handleReturnToApp(newIntent);
@@ -139,158 +128,68 @@ public class FlutterBraintreeCustom extends AppCompatActivity {
         }
     }
 
-    public void onPaymentMethodNonceCreated(PaymentMethodNonce paymentMethodNonce, HashMap<String, String> billingAddress) {
-        Log.d("FlutterBraintreeCustom", "onPaymentMethodNonceCreated");
-        Log.d("FlutterBraintreeCustom", "nonce = " + paymentMethodNonce.getString());
-        HashMap<String, Object> nonceMap = new HashMap<String, Object>();
-        nonceMap.put("nonce", paymentMethodNonce.getString());
-        nonceMap.put("isDefault", paymentMethodNonce.isDefault());
-        nonceMap.put("billingInfo", billingAddress);
-        nonceMap.put("deviceData", deviceData);
-        if (paymentMethodNonce instanceof PayPalAccountNonce) {
-            Log.d("FlutterBraintreeCustom", "PayPalAccountNonce");
-            PayPalAccountNonce paypalAccount = (PayPalAccountNonce) paymentMethodNonce;
-            nonceMap.put("paypalPayerId", paypalAccount.getPayerId());
-            nonceMap.put("typeLabel", "PayPal");
-            nonceMap.put("description", paypalAccount.getEmail());
-        } else if (paymentMethodNonce instanceof CardNonce) {
-            Log.d("FlutterBraintreeCustom", "CardNonce");
-            CardNonce card = (CardNonce) paymentMethodNonce;
-            nonceMap.put("typeLabel", card.getCardType());
-            nonceMap.put("description", "ending in ••" + card.getLastTwo());
-        } else if (paymentMethodNonce instanceof GooglePayCardNonce) {
-            Log.d("FlutterBraintreeCustom", "GooglePayCardNonce");
-            GooglePayCardNonce googlePayCard = (GooglePayCardNonce) paymentMethodNonce;
-            nonceMap.put("cardType", googlePayCard.getCardType());
-            nonceMap.put("typeLabel", "GooglePay");
-            nonceMap.put("description", googlePayCard.getEmail());
-            nonceMap.put("lastTwo", googlePayCard.getLastTwo());
-        }
-        DataCollectorRequest dataCollectorRequest = new DataCollectorRequest(true); 
-        dataCollector.collectDeviceData(this, dataCollectorRequest, result -> {
-            if (result instanceof DataCollectorResult.Success) {
-                deviceData = ((DataCollectorResult.Success) result).getDeviceData();
-                Log.d("FlutterBraintreeCustom", "Device data collected successfully " + deviceData);
-            } else if (result instanceof DataCollectorResult.Failure) {
-                DataCollectorResult.Failure failure = (DataCollectorResult.Failure) result;
-                Log.e("FlutterBraintreeCustom", "Error collecting device data: " + failure.getError().getMessage());
-                deviceData = null;
-            }
-        });
-          
-        nonceMap.put("deviceData", deviceData);
-        nonceMap.put("billingInfo", billingAddress);
+    @Override
+    public int getRequestId() {
+        return requestId;
+    }
 
+    @Override
+    public ComponentActivity getActivity() {
+        return this;
+    }
+
+    @Override
+    public void onPaymentMethodNonceCreated(PaymentMethodNonce paymentMethodNonce) {
+        FlutterBraintreeLog.d("FlutterBraintreeCustom", "onPaymentMethodNonceCreated");
+        FlutterBraintreeFlowScope flowScope = scope;
+        deviceDataCache.await(authorization, FlutterBraintreeDeviceDataCache.DEFAULT_WAIT_MS, deviceData ->
+            flowScope.deliver(host -> ((FlutterBraintreeCustom) host).finishWithNonce(paymentMethodNonce, deviceData)));
+    }
+
+    private void finishWithNonce(PaymentMethodNonce paymentMethodNonce, String deviceData) {
         Intent result = new Intent();
         result.putExtra("type", "paymentMethodNonce");
-        result.putExtra("paymentMethodNonce", nonceMap);
+        result.putExtra("requestId", requestId);
+        FlutterBraintreeNonceResult nonceResult = FlutterBraintreeNonceResult.fromNonce(paymentMethodNonce, deviceData, fields);
+        nonceResult.binBrand = binBrand;
+        result.putExtra("paymentMethodNonce", nonceResult);
 
-        Log.d("FlutterBraintreeCustom", "onPaymentMethodNonceCreated Success");
+        FlutterBraintreeLog.d("FlutterBraintreeCustom", "onPaymentMethodNonceCreated Success");
         setResult(RESULT_OK, result);
         finish();
     }
 
+    @Override
     public void onCancel() {
-        Log.d("FlutterBraintreeCustom", "onCancel");
-        Intent result = new Intent();
-        result.putExtra("error", new Exception("User canceled the operation"));
-        setResult(2, result);
-        finish();
+        FlutterBraintreeLog.d("FlutterBraintreeCustom", "onCancel");
+        onError(new Exception("User canceled the operation"));
     }
 
+    @Override
     public void onError(Exception error) {
-        Log.d("FlutterBraintreeCustom", "onError");
+        FlutterBraintreeLog.d("FlutterBraintreeCustom", "onError");
+        // Only the message goes through Binder, not the serialized exception and its stack trace
         Intent result = new Intent();
-        result.putExtra("error", error);
-        setResult(2, result);
+        result.putExtra("error", error.getMessage());
+        result.putExtra("requestId", requestId);
+        setResult(RESULT_ERROR, result);
         finish();
     }
 
 
-    public HashMap<String, String> fillBillingAddressFromNonce(PaymentMethodNonce paymentMethodNonce) {
-        HashMap<String, String> billingAddressMap = createEmptyBillingAddress();
-        
-        if (paymentMethodNonce instanceof GooglePayCardNonce) {
-            GooglePayCardNonce googlePayCard = (GooglePayCardNonce) paymentMethodNonce;
-            PostalAddress googlePayBillingAddress = googlePayCard.getBillingAddress();
-            
-            if (googlePayBillingAddress != null) {
-                billingAddressMap.put("givenName", googlePayBillingAddress.getRecipientName());
-                billingAddressMap.put("phoneNumber", googlePayBillingAddress.getPhoneNumber());
-                billingAddressMap.put("streetAddress", googlePayBillingAddress.getStreetAddress());
-                billingAddressMap.put("extendedAddress", googlePayBillingAddress.getExtendedAddress());
-                billingAddressMap.put("locality", googlePayBillingAddress.getLocality());
-                billingAddressMap.put("region", googlePayBillingAddress.getRegion());
-                billingAddressMap.put("postalCode", googlePayBillingAddress.getPostalCode());
-                billingAddressMap.put("countryCodeAlpha2", googlePayBillingAddress.getCountryCodeAlpha2());
-            }
-        }
-
-        if (paymentMethodNonce instanceof PayPalAccountNonce) {
-            PayPalAccountNonce paypalAccount = (PayPalAccountNonce) paymentMethodNonce;
-            PostalAddress paypalBillingAddress = paypalAccount.getBillingAddress();
-            Log.d("FlutterBraintreeCustom", convertPayPalNonceToString(paypalAccount));
-                        
-            if (paypalBillingAddress != null) {
-                billingAddressMap.put("givenName", paypalBillingAddress.getRecipientName());
-                billingAddressMap.put("phoneNumber", paypalBillingAddress.getPhoneNumber());
-                billingAddressMap.put("streetAddress", paypalBillingAddress.getStreetAddress());
-                billingAddressMap.put("extendedAddress", paypalBillingAddress.getExtendedAddress());
-                billingAddressMap.put("locality", paypalBillingAddress.getLocality());
-                billingAddressMap.put("region", paypalBillingAddress.getRegion());
-                billingAddressMap.put("postalCode", paypalBillingAddress.getPostalCode());
-                billingAddressMap.put("countryCodeAlpha2", paypalBillingAddress.getCountryCodeAlpha2());
-            }
-        }
-        
-        // Log the billing address
-        Log.d("FlutterBraintreeCustom", "fillBillingAddressFromNonceMap");
-        Log.d("FlutterBraintreeCustom", "Given Name: " + billingAddressMap.get("givenName"));
-        Log.d("FlutterBraintreeCustom", "Phone Number: " + billingAddressMap.get("phoneNumber"));
-        Log.d("FlutterBraintreeCustom", "Street Address: " + billingAddressMap.get("streetAddress"));
-        Log.d("FlutterBraintreeCustom", "Extended Address: " + billingAddressMap.get("extendedAddress"));
-        Log.d("FlutterBraintreeCustom", "Locality: " + billingAddressMap.get("locality"));
-        Log.d("FlutterBraintreeCustom", "Region: " + billingAddressMap.get("region"));
-        Log.d("FlutterBraintreeCustom", "Postal Code: " + billingAddressMap.get("postalCode"));
-        Log.d("FlutterBraintreeCustom", "Country Code Alpha2: " + billingAddressMap.get("countryCodeAlpha2"));
-
-        return billingAddressMap;
-    }
-
-
-    public HashMap<String, String> createEmptyBillingAddress() {
-        HashMap<String, String> billingAddress = new HashMap<>();
-        billingAddress.put("givenName", "");
-        billingAddress.put("phoneNumber", "");
-        billingAddress.put("streetAddress", "");
-        billingAddress.put("extendedAddress", "");
-        billingAddress.put("locality", "");
-        billingAddress.put("region", "");
-        billingAddress.put("postalCode", "");
-        billingAddress.put("countryCodeAlpha2", "");
-        return billingAddress;
-    }
-
-    public String convertPayPalNonceToString(PayPalAccountNonce paypalAccount) {
-        if (paypalAccount == null) return "PayPalAccount is null";
-        StringBuilder sb = new StringBuilder();
-        sb.append("PayPalAccount Details:\n");
-        sb.append("Email: ").append(paypalAccount.getEmail()).append("\n");
-        sb.append("PayerId: ").append(paypalAccount.getPayerId()).append("\n");
-        sb.append("First Name: ").append(paypalAccount.getFirstName()).append("\n");
-        sb.append("Last Name: ").append(paypalAccount.getLastName()).append("\n");
-        return sb.toString();
-    }
-
     @Override
     protected void onDestroy() {
-        Log.d("FlutterBraintreeCustom", "onDestroy");
+        FlutterBraintreeLog.d("FlutterBraintreeCustom", "onDestroy");
         super.onDestroy();
-        // Ensure proper cleanup
-        dataCollector = null;
+        // Late client and cache callbacks are dropped from here on instead of reaching this activity
+        if (scope != null) {
+            scope.close();
+        }
+        if (launchers != null) {
+            launchers.unregister();
+        }
         payPalHandler = null;
         treeDSHandler = null;
         googlePayHandler = null;
-        deviceData = null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,186 @@
+package com.example.flutter_braintree;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.braintreepayments.api.datacollector.DataCollector;
+import com.braintreepayments.api.datacollector.DataCollectorRequest;
+import com.braintreepayments.api.datacollector.DataCollectorResult;
+
+/**
+ * Collects device data once per authorization and shares it between flows.
+ *
+ * Collection starts as soon as an authorization is known, via {@link #prefetch},
+ * and results are handed out until they are older than {@link #TTL_MS}. Callers that
+ * need the value use {@link #await}, which joins the in-flight collection instead of
+ * starting another one and gives up after a bounded wait. Collection reads device state
+ * and talks to the gateway, so it runs on a background thread rather than on main.
+ * Expired entries are pruned whenever a new collection starts, so the map only holds the
+ * authorizations used within the last {@link #TTL_MS}.
+ */
+public final class FlutterBraintreeDeviceDataCache {
+
+    public interface Callback {
+        void onDeviceData(String deviceData);
+    }
+
+    static final long TTL_MS = 5 * 60 * 1000;
+    static final long DEFAULT_WAIT_MS = 3000;
+
+    private static FlutterBraintreeDeviceDataCache instance;
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final Context applicationContext;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final HashMap<String, Entry> entries = new HashMap<>();
+
+    private FlutterBraintreeDeviceDataCache(Context context) {
+        this.applicationContext = context.getApplicationContext();
+    }
+
+    public static synchronized FlutterBraintreeDeviceDataCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new FlutterBraintreeDeviceDataCache(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Starts collecting device data for the authorization unless a fresh value
+     * or an in-flight collection already exists.
+     */
+    public void prefetch(String authorization) {
+        if (authorization == null) return;
+        synchronized (this) {
+            Entry entry = entries.get(authorization);
+            if (entry != null && (entry.inFlight || !entry.isExpired())) {
+                return;
+            }
+            pruneExpired();
+            entries.put(authorization, new Entry());
+        }
+        executor.execute(() -> collect(authorization));
+    }
+
+    /**
+     * Delivers the device data for the authorization on the main thread, waiting at most
+     * {@code timeoutMs} for an in-flight collection. Delivers {@code null} if collection
+     * failed or did not finish in time.
+     */
+    public void await(String authorization, long timeoutMs, Callback callback) {
+        prefetch(authorization);
+        Waiter waiter = new Waiter(callback, mainHandler);
+        synchronized (this) {
+            Entry entry = entries.get(authorization);
+            if (entry == null || !entry.inFlight) {
+                String deviceData = entry == null ? null : entry.deviceData;
+                mainHandler.post(() -> waiter.deliver(deviceData));
+                return;
+            }
+            entry.waiters.add(waiter);
+        }
+        mainHandler.postDelayed(waiter.timeout, timeoutMs);
+    }
+
+    /**
+     * Drops the device data for an authorization that has been replaced or revoked. An
+     * in-flight collection is kept, its waiters still expect a value.
+     */
+    public synchronized void invalidate(String authorization) {
+        Entry entry = entries.get(authorization);
+        if (entry != null && !entry.inFlight) {
+            entries.remove(authorization);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.values().removeIf(entry -> !entry.inFlight);
+    }
+
+    private void pruneExpired() {
+        entries.values().removeIf(entry -> !entry.inFlight && entry.isExpired());
+    }
+
+    private void collect(String authorization) {
+        DataCollector dataCollector = new DataCollector(applicationContext, authorization);
+        dataCollector.collectDeviceData(applicationContext, new DataCollectorRequest(true), result -> {
+            String deviceData = null;
+            if (result instanceof DataCollectorResult.Success) {
+                deviceData = ((DataCollectorResult.Success) result).getDeviceData();
+            } else if (result instanceof DataCollectorResult.Failure) {
+                FlutterBraintreeLog.e("FlutterBraintreeDeviceDataCache", "Error collecting device data:",
+                    ((DataCollectorResult.Failure) result).getError());
+            }
+            onCollected(authorization, deviceData);
+        });
+    }
+
+    private void onCollected(String authorization, String deviceData) {
+        List<Waiter> waiters;
+        synchronized (this) {
+            Entry entry = entries.get(authorization);
+            if (entry == null) return;
+            waiters = new ArrayList<>(entry.waiters);
+            entry.waiters.clear();
+            entry.inFlight = false;
+            if (deviceData == null) {
+                // Do not cache failures, the next flow should try again
+                entries.remove(authorization);
+            } else {
+                entry.deviceData = deviceData;
+                entry.collectedAt = SystemClock.elapsedRealtime();
+            }
+        }
+        for (Waiter waiter : waiters) {
+            mainHandler.post(() -> waiter.deliver(deviceData));
+        }
+    }
+
+    private static class Entry {
+        boolean inFlight = true;
+        String deviceData;
+        long collectedAt;
+        final List<Waiter> waiters = new ArrayList<>();
+
+        boolean isExpired() {
+            return SystemClock.elapsedRealtime() - collectedAt > TTL_MS;
+        }
+    }
+
+    /**
+     * Runs the callback at most once, whichever of completion or timeout comes first, and
+     * removes the timeout once the value is delivered. Only touched on the main thread.
+     */
+    private static class Waiter {
+        private final Callback callback;
+        private final Handler handler;
+        private boolean delivered = false;
+        final Runnable timeout = this::onTimeout;
+
+        Waiter(Callback callback, Handler handler) {
+            this.callback = callback;
+            this.handler = handler;
+        }
+
+        void deliver(String deviceData) {
+            if (delivered) return;
+            delivered = true;
+            handler.removeCallbacks(timeout);
+            callback.onDeviceData(deviceData);
+        }
+
+        private void onTimeout() {
+            if (delivered) return;
+            FlutterBraintreeLog.w("FlutterBraintreeDeviceDataCache", "Timed out waiting for device data");
+            deliver(null);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.flutter_braintree;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayDeque;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Stream handler for plugin event channels. Events may be emitted from any thread; they
+ * are sent from the main thread in emission order, so an event emitted on main before a
+ * method reply also reaches Dart before it.
+ *
+ * While Dart is not listening, up to {@code bufferLimit} of the latest events are kept and
+ * sent once it listens, since a call can start before the listen request has arrived.
+ * With a limit of 0 such events are dropped.
+ */
+public class FlutterBraintreeEventStream implements EventChannel.StreamHandler {
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final int bufferLimit;
+    // Main thread only
+    private final ArrayDeque<Object> buffered = new ArrayDeque<>();
+    private volatile EventChannel.EventSink eventSink;
+
+    public FlutterBraintreeEventStream() {
+        this(0);
+    }
+
+    public FlutterBraintreeEventStream(int bufferLimit) {
+        this.bufferLimit = bufferLimit;
+    }
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        eventSink = events;
+        while (!buffered.isEmpty()) {
+            events.success(buffered.poll());
+        }
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        eventSink = null;
+    }
+
+    public boolean hasListener() {
+        return eventSink != null;
+    }
+
+    public void emit(Object event) {
+        if (eventSink == null && bufferLimit == 0) return;
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            send(event);
+        } else {
+            mainHandler.post(() -> send(event));
+        }
+    }
+
+    private void send(Object event) {
+        EventChannel.EventSink sink = eventSink;
+        if (sink != null) {
+            sink.success(event);
+            return;
+        }
+        if (bufferLimit == 0) return;
+        if (buffered.size() == bufferLimit) {
+            buffered.poll();
+        }
+        buffered.add(event);
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.flutter_braintree;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the pre-flight steps of a payment flow as a small dependency graph.
+ *
+ * Each step names the steps it needs; a step starts on the main thread as soon as all of
+ * them have finished, so independent steps overlap instead of running one after another.
+ * Every step has a deadline. A required step that misses it fails the flow, an optional
+ * one completes with a null value. The first failure ends the flow and every later step
+ * result is ignored, as is every result after {@link #cancel}.
+ */
+public class FlutterBraintreeFlowGraph {
+
+    public interface Step {
+        void run(FlutterBraintreeFlowGraph graph, StepCallback callback);
+    }
+
+    public interface StepCallback {
+        void onSuccess(Object value);
+
+        void onFailure(Exception error);
+    }
+
+    public interface Listener {
+        void onComplete(FlutterBraintreeFlowGraph graph);
+
+        void onFailure(Exception error);
+    }
+
+    private final String name;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LinkedHashMap<String, Node> nodes = new LinkedHashMap<>();
+    private final HashMap<String, Object> values = new HashMap<>();
+    private Listener listener;
+    private boolean finished = false;
+
+    public FlutterBraintreeFlowGraph(String name) {
+        this.name = name;
+    }
+
+    /** Declares a step. Steps must be added before {@link #start}, dependencies first. */
+    public FlutterBraintreeFlowGraph add(String stepName, long deadlineMs, boolean required, Step step, String... dependsOn) {
+        for (String dependency : dependsOn) {
+            if (!nodes.containsKey(dependency)) {
+                throw new IllegalArgumentException("Unknown dependency " + dependency + " of step " + stepName);
+            }
+        }
+        nodes.put(stepName, new Node(stepName, deadlineMs, required, step, Arrays.asList(dependsOn)));
+        return this;
+    }
+
+    /** Returns the value a finished step produced, or null. Only valid on the main thread. */
+    public Object get(String stepName) {
+        return values.get(stepName);
+    }
+
+    /** Starts every step without dependencies. Must be called on the main thread. */
+    public void start(Listener listener) {
+        this.listener = listener;
+        FlutterBraintreeLog.d("FlutterBraintreeFlowGraph", "start", name);
+        startReadySteps();
+    }
+
+    /**
+     * Stops the flow without notifying the listener: pending deadlines are dropped and
+     * results of steps still running are ignored.
+     */
+    public void cancel() {
+        finished = true;
+        mainHandler.removeCallbacksAndMessages(null);
+        listener = null;
+    }
+
+    private void startReadySteps() {
+        List<Node> ready = new ArrayList<>();
+        for (Node node : nodes.values()) {
+            if (node.state == Node.WAITING && dependenciesDone(node)) {
+                node.state = Node.RUNNING;
+                ready.add(node);
+            }
+        }
+        for (Node node : ready) {
+            if (finished) return;
+            run(node);
+        }
+    }
+
+    private void run(Node node) {
+        Runnable timeout = () -> {
+            if (node.state != Node.RUNNING) return;
+            FlutterBraintreeLog.w("FlutterBraintreeFlowGraph", "step missed its deadline:", node.name);
+            if (node.required) {
+                fail(new TimeoutException(node.name + " did not finish within " + node.deadlineMs + "ms"));
+            } else {
+                complete(node, null);
+            }
+        };
+        mainHandler.postDelayed(timeout, node.deadlineMs);
+        try {
+            node.step.run(this, new StepCallback() {
+                @Override
+                public void onSuccess(Object value) {
+                    postToMain(() -> {
+                        mainHandler.removeCallbacks(timeout);
+                        complete(node, value);
+                    });
+                }
+
+                @Override
+                public void onFailure(Exception error) {
+                    postToMain(() -> {
+                        mainHandler.removeCallbacks(timeout);
+                        if (node.state != Node.RUNNING) return;
+                        if (node.required) {
+                            fail(error);
+                        } else {
+                            FlutterBraintreeLog.w("FlutterBraintreeFlowGraph", "optional step failed:", node.name);
+                            complete(node, null);
+                        }
+                    });
+                }
+            });
+        } catch (Exception e) {
+            mainHandler.removeCallbacks(timeout);
+            fail(e);
+        }
+    }
+
+    private void complete(Node node, Object value) {
+        if (finished || node.state != Node.RUNNING) return;
+        node.state = Node.DONE;
+        values.put(node.name, value);
+        for (Node other : nodes.values()) {
+            if (other.state != Node.DONE) {
+                startReadySteps();
+                return;
+            }
+        }
+        finished = true;
+        listener.onComplete(this);
+    }
+
+    private void fail(Exception error) {
+        if (finished) return;
+        finished = true;
+        FlutterBraintreeLog.e("FlutterBraintreeFlowGraph", "flow failed:", name);
+        listener.onFailure(error);
+    }
+
+    private boolean dependenciesDone(Node node) {
+        for (String dependency : node.dependsOn) {
+            if (nodes.get(dependency).state != Node.DONE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void postToMain(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+        } else {
+            mainHandler.post(runnable);
+        }
+    }
+
+    private static class Node {
+        static final int WAITING = 0;
+        static final int RUNNING = 1;
+        static final int DONE = 2;
+
+        final String name;
+        final long deadlineMs;
+        final boolean required;
+        final Step step;
+        final List<String> dependsOn;
+        int state = WAITING;
+
+        Node(String name, long deadlineMs, boolean required, Step step, List<String> dependsOn) {
+            this.name = name;
+            this.deadlineMs = deadlineMs;
+            this.required = required;
+            this.step = step;
+            this.dependsOn = dependsOn;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.flutter_braintree;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Owns what one payment flow holds on to for as long as its {@link FlutterBraintreeHost}
+ * lives: the host itself, the flow graph and any other state registered with
+ * {@link #onClose}.
+ *
+ * Handlers reach the host only through the scope, so callbacks still queued in the
+ * process-wide clients, caches and retry policy hold the small scope rather than the
+ * activity. Once the scope is closed those callbacks are dropped instead of calling into
+ * a destroyed activity or a finished operation.
+ */
+public final class FlutterBraintreeFlowScope {
+
+    public interface HostAction {
+        void run(FlutterBraintreeHost host);
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final int requestId;
+    private final List<Runnable> closeActions = new ArrayList<>();
+    private volatile FlutterBraintreeHost host;
+
+    public FlutterBraintreeFlowScope(FlutterBraintreeHost host) {
+        this.host = host;
+        this.requestId = host.getRequestId();
+    }
+
+    public int getRequestId() {
+        return requestId;
+    }
+
+    /** Returns the host, or null once the scope is closed. */
+    public FlutterBraintreeHost getHost() {
+        return host;
+    }
+
+    public boolean isClosed() {
+        return host == null;
+    }
+
+    /** Runs {@code action} with the host on the main thread, or drops it if the scope has closed. */
+    public void deliver(HostAction action) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            mainHandler.post(() -> deliver(action));
+            return;
+        }
+        FlutterBraintreeHost current = host;
+        if (current == null) {
+            FlutterBraintreeLog.d("FlutterBraintreeFlowScope", "dropped callback after close, requestId =", requestId);
+            return;
+        }
+        action.run(current);
+    }
+
+    /** Registers an action to release state when the scope closes. Runs it at once if already closed. */
+    public void onClose(Runnable action) {
+        synchronized (closeActions) {
+            if (host != null) {
+                closeActions.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /** Releases everything the flow holds. Must be called on the main thread. */
+    public void close() {
+        List<Runnable> actions;
+        synchronized (closeActions) {
+            if (host == null) return;
+            host = null;
+            actions = new ArrayList<>(closeActions);
+            closeActions.clear();
+        }
+        FlutterBraintreeLog.d("FlutterBraintreeFlowScope", "close, requestId =", requestId);
+        for (Runnable action : actions) {
+            action.run();
+        }
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+}
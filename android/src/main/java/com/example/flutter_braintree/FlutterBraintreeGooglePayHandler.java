@@ -1,15 +1,14 @@
 package com.example.flutter_braintree;
 
+import android.content.Context;
 import android.content.Intent;
-import android.util.Log;
 import androidx.annotation.NonNull;
 
 import com.braintreepayments.api.googlepay.GooglePayClient;
-import com.braintreepayments.api.googlepay.GooglePayLauncher;
 import com.braintreepayments.api.googlepay.GooglePayRequest;
 import com.braintreepayments.api.googlepay.GooglePayPaymentAuthRequest;
+import com.braintreepayments.api.googlepay.GooglePayPaymentAuthResult;
 import com.braintreepayments.api.googlepay.GooglePayResult;
-import com.braintreepayments.api.googlepay.GooglePayReadinessResult;
 import com.braintreepayments.api.core.PaymentMethodNonce;
 import com.braintreepayments.api.core.UserCanceledException;
 import com.braintreepayments.api.googlepay.GooglePayTotalPriceStatus;
@@ -18,81 +17,118 @@ import com.braintreepayments.api.googlepay.GooglePayBillingAddressFormat;
 import com.google.android.gms.wallet.WalletConstants;
 
 public class FlutterBraintreeGooglePayHandler {
-    private final FlutterBraintreeCustom activity;
+    private final FlutterBraintreeFlowScope scope;
+    private final Context context;
+    private final String authorization;
+    private final FlutterBraintreeClientRegistry clientRegistry;
     private final GooglePayClient googlePayClient;
-    private final GooglePayLauncher googlePayLauncher;
-    
-
-    public FlutterBraintreeGooglePayHandler(FlutterBraintreeCustom activity) {
-        Log.d("FlutterBraintreeGooglePayHandler", "FlutterBraintreeGooglePayHandler");
-
-        this.activity = activity;
-
-        String authorization = activity.getIntent().getStringExtra("authorization");
-
-        this.googlePayClient = new GooglePayClient(activity, authorization);
-        this.googlePayLauncher = new GooglePayLauncher(activity, paymentAuthResult -> {
-            Log.d("FlutterBraintreeGooglePayHandler", "GooglePayLauncher paymentAuthResult = " + paymentAuthResult);
-            googlePayClient.tokenize(paymentAuthResult, result -> {
-                if (result instanceof GooglePayResult.Success) {
-                    Log.d("FlutterBraintreeGooglePayHandler", "GooglePayLauncher result = " + result);
-                    GooglePayResult.Success success = (GooglePayResult.Success) result;
-                    activity.onPaymentMethodNonceCreated(success.getNonce(), activity.createEmptyBillingAddress());
-                } else if (result instanceof GooglePayResult.Failure) {
-                    Log.d("FlutterBraintreeGooglePayHandler", "GooglePayLauncher result = " + result);
-                    GooglePayResult.Failure failure = (GooglePayResult.Failure) result;
-                    activity.onError(failure.getError());
-                } else if (result instanceof GooglePayResult.Cancel) {
-                    Log.d("FlutterBraintreeGooglePayHandler", "GooglePayLauncher result = " + result);
-                    activity.onCancel();
-                } else {
-                    Log.d("FlutterBraintreeGooglePayHandler", "GooglePayLauncher result = " + result);
-                    activity.onError(new Exception("Unexpected Google Pay result type"));
-                }
-            });
+    private final FlutterBraintreeLaunchers launchers;
+
+    static final long READINESS_DEADLINE_MS = 10000;
+    static final long AUTH_REQUEST_DEADLINE_MS = 15000;
+    static final long REQUEST_DEADLINE_MS = 1000;
+
+    public FlutterBraintreeGooglePayHandler(FlutterBraintreeFlowScope scope, FlutterBraintreeLaunchers launchers) {
+        FlutterBraintreeLog.d("FlutterBraintreeGooglePayHandler", "FlutterBraintreeGooglePayHandler");
+
+        FlutterBraintreeHost host = scope.getHost();
+        this.scope = scope;
+        this.launchers = launchers;
+        this.context = host.getApplicationContext();
+
+        this.authorization = host.getIntent().getStringExtra("authorization");
+        this.clientRegistry = FlutterBraintreeClientRegistry.getInstance(context);
+
+        this.googlePayClient = clientRegistry.getGooglePayClient(authorization);
+        FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.CLIENT_CONSTRUCTED);
+        FlutterBraintreeLaunchers.GooglePayTarget target = this::onGooglePayAuthResult;
+        launchers.setGooglePayTarget(target);
+        scope.onClose(() -> launchers.clearTargets(null, target));
+    }
+
+    private void onGooglePayAuthResult(GooglePayPaymentAuthResult paymentAuthResult) {
+        FlutterBraintreeLog.d("FlutterBraintreeGooglePayHandler", "GooglePayLauncher paymentAuthResult =", paymentAuthResult.getClass());
+        FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.RETURNED_TO_APP);
+        FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.TOKENIZING);
+        googlePayClient.tokenize(paymentAuthResult, result -> {
+            FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.TOKENIZE_COMPLETE);
+            if (result instanceof GooglePayResult.Success) {
+                FlutterBraintreeLog.d("FlutterBraintreeGooglePayHandler", "GooglePayLauncher result =", result.getClass());
+                GooglePayResult.Success success = (GooglePayResult.Success) result;
+                scope.deliver(host -> host.onPaymentMethodNonceCreated(success.getNonce()));
+            } else if (result instanceof GooglePayResult.Failure) {
+                FlutterBraintreeLog.d("FlutterBraintreeGooglePayHandler", "GooglePayLauncher result =", result.getClass());
+                GooglePayResult.Failure failure = (GooglePayResult.Failure) result;
+                clientRegistry.onFailure(authorization, failure.getError());
+                scope.deliver(host -> host.onError(failure.getError()));
+            } else if (result instanceof GooglePayResult.Cancel) {
+                FlutterBraintreeLog.d("FlutterBraintreeGooglePayHandler", "GooglePayLauncher result =", result.getClass());
+                scope.deliver(FlutterBraintreeHost::onCancel);
+            } else {
+                FlutterBraintreeLog.d("FlutterBraintreeGooglePayHandler", "GooglePayLauncher result =", result.getClass());
+                scope.deliver(host -> host.onError(new Exception("Unexpected Google Pay result type")));
+            }
         });
     }
 
     public void startGooglePaymentFlow(Intent intent) {
-        Log.d("FlutterBraintreeGooglePayHandler", "startGooglePaymentFlow");
-        try {
-            googlePayClient.isReadyToPay(activity, readinessResult -> {
-                if (readinessResult instanceof GooglePayReadinessResult.ReadyToPay) {
-                    Log.d("FlutterBraintreeGooglePayHandler", "startGooglePaymentFlow Google Pay is ready");
-                    GooglePayRequest request = createGooglePayRequest(intent);
-                    googlePayClient.createPaymentAuthRequest(request, paymentAuthRequest -> {
-                        Log.e("FlutterBraintreeGooglePayHandler", "startGooglePaymentFlow paymentAuthRequest = " + paymentAuthRequest);
-                        if (paymentAuthRequest instanceof GooglePayPaymentAuthRequest.ReadyToLaunch) {
-                            Log.d("FlutterBraintreeGooglePayHandler", "startGooglePaymentFlow paymentAuthRequest = ReadyToLaunch");
-                            googlePayLauncher.launch(
-                                (GooglePayPaymentAuthRequest.ReadyToLaunch) paymentAuthRequest
-                            );
-                        } else if (paymentAuthRequest instanceof GooglePayPaymentAuthRequest.Failure) {
-                            Log.d("FlutterBraintreeGooglePayHandler", "startGooglePaymentFlow paymentAuthRequest = Failure");
-                            GooglePayPaymentAuthRequest.Failure failure =
-                                (GooglePayPaymentAuthRequest.Failure) paymentAuthRequest;
-                            activity.onError(failure.getError());
-                        } else {
-                            Log.d("FlutterBraintreeGooglePayHandler", "startGooglePaymentFlow paymentAuthRequest = Unexpected");
-                            activity.onError(new Exception("Unexpected paymentAuthRequest type"));
-                        }
-                    });
-                } else {
-                    Log.d("FlutterBraintreeGooglePayHandler", "startGooglePaymentFlow Google Pay is not ready");
-                    activity.onError(new Exception("Google Pay is not ready"));
+        FlutterBraintreeLog.d("FlutterBraintreeGooglePayHandler", "startGooglePaymentFlow");
+        // Readiness and request building do not depend on each other, so they overlap.
+        // Device data is already being collected and is joined when the nonce is delivered.
+        FlutterBraintreeFlowGraph flowGraph = new FlutterBraintreeFlowGraph("startGooglePaymentFlow");
+        scope.onClose(flowGraph::cancel);
+        flowGraph
+            .add("readiness", READINESS_DEADLINE_MS, true, (graph, callback) ->
+                // Usually answered from the cache filled by checkGooglePayReady, without another round trip
+                FlutterBraintreeGooglePayReadinessCache.getInstance(context).check(authorization, isReadyToPay -> {
+                    // Readiness needs the gateway configuration, so it is known to be fetched from here on
+                    FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.CONFIGURATION_FETCHED);
+                    if (isReadyToPay) {
+                        callback.onSuccess(true);
+                    } else {
+                        FlutterBraintreeLog.d("FlutterBraintreeGooglePayHandler", "startGooglePaymentFlow Google Pay is not ready");
+                        callback.onFailure(new Exception("Google Pay is not ready"));
+                    }
+                }))
+            .add("request", REQUEST_DEADLINE_MS, true, (graph, callback) ->
+                callback.onSuccess(createGooglePayRequest(intent)))
+            .add("authRequest", AUTH_REQUEST_DEADLINE_MS, true, (graph, callback) ->
+                googlePayClient.createPaymentAuthRequest((GooglePayRequest) graph.get("request"), paymentAuthRequest -> {
+                    FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.AUTH_REQUEST_CREATED);
+                    FlutterBraintreeLog.d("FlutterBraintreeGooglePayHandler", "startGooglePaymentFlow paymentAuthRequest =", paymentAuthRequest.getClass());
+                    if (paymentAuthRequest instanceof GooglePayPaymentAuthRequest.ReadyToLaunch) {
+                        callback.onSuccess(paymentAuthRequest);
+                    } else if (paymentAuthRequest instanceof GooglePayPaymentAuthRequest.Failure) {
+                        Exception error = ((GooglePayPaymentAuthRequest.Failure) paymentAuthRequest).getError();
+                        clientRegistry.onFailure(authorization, error);
+                        callback.onFailure(error);
+                    } else {
+                        callback.onFailure(new Exception("Unexpected paymentAuthRequest type"));
+                    }
+                }), "readiness", "request")
+            .add("launch", REQUEST_DEADLINE_MS, true, (graph, callback) -> {
+                launchers.launchGooglePay((GooglePayPaymentAuthRequest.ReadyToLaunch) graph.get("authRequest"));
+                FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.UI_LAUNCHED);
+                callback.onSuccess(null);
+            }, "authRequest")
+            .start(new FlutterBraintreeFlowGraph.Listener() {
+                @Override
+                public void onComplete(FlutterBraintreeFlowGraph graph) {
+                    FlutterBraintreeLog.d("FlutterBraintreeGooglePayHandler", "startGooglePaymentFlow pre-flight complete");
+                }
+
+                @Override
+                public void onFailure(Exception error) {
+                    FlutterBraintreeLog.e("FlutterBraintreeGooglePayHandler", "startGooglePaymentFlow Error in Google Pay flow", error);
+                    scope.deliver(host -> host.onError(error));
                 }
             });
-        } catch (Exception e) {
-            Log.e("FlutterBraintreeGooglePayHandler", "startGooglePaymentFlow Error in Google Pay flow", e);
-            activity.onError(e);
-        }
     }
 
     private GooglePayRequest createGooglePayRequest(Intent intent) {
-        Log.d("FlutterBraintreeGooglePayHandler", "createGooglePayRequest");
+        FlutterBraintreeLog.d("FlutterBraintreeGooglePayHandler", "createGooglePayRequest");
 
         String totalPrice = intent.getStringExtra("totalPrice");
-        Log.d("FlutterBraintreeGooglePayHandler", "totalPrice = " + totalPrice);
 
         GooglePayRequest request = new GooglePayRequest(
             "USD", 
@@ -104,27 +140,6 @@ public class FlutterBraintreeGooglePayHandler {
         request.setPhoneNumberRequired(true);
         request.setBillingAddressFormat(GooglePayBillingAddressFormat.FULL);
 
-        Log.d("FlutterBraintreeGooglePayHandler", "createGooglePayRequest request = " + request);
         return request;
     }
-
-    public void checkGooglePayReady() {
-        Log.d("FlutterBraintreeCustom", "checkGooglePayReady");
-        googlePayClient.isReadyToPay(activity, readinessResult -> {
-            Intent result = new Intent();
-            if (readinessResult instanceof GooglePayReadinessResult.ReadyToPay) {
-                Log.d("FlutterBraintreeCustom", "checkGooglePayReady Google Pay is ready");
-                result.putExtra("type", "isReadyToPay");
-                result.putExtra("isReadyToPay", true);
-                activity.setResult(FlutterBraintreeCustom.RESULT_OK, result);
-            } else {
-                Log.d("FlutterBraintreeCustom", "checkGooglePayReady Google Pay is not ready");
-                result.putExtra("error", "Google Pay is not ready");
-                activity.setResult(FlutterBraintreeCustom.RESULT_CANCELED, result);
-            }
-            activity.finish();
-        });
-    }
-
-    
-}
\ No newline at end of file
+}
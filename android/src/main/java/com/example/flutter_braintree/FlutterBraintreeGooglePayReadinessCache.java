@@ -0,0 +1,172 @@
+package com.example.flutter_braintree;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.braintreepayments.api.googlepay.GooglePayReadinessResult;
+
+/**
+ * Caches the Google Pay readiness answer per authorization.
+ *
+ * Readiness only changes when Google Play services or the Wallet app is installed,
+ * updated or removed, so answers are kept for {@link #TTL_MS} and dropped early when
+ * one of those packages changes. Concurrent checks for the same authorization share
+ * one {@code isReadyToPay} call.
+ */
+public final class FlutterBraintreeGooglePayReadinessCache {
+
+    public interface Callback {
+        void onReadiness(boolean isReadyToPay);
+    }
+
+    static final long TTL_MS = 30 * 60 * 1000;
+
+    private static final String[] WATCHED_PACKAGES = {
+        "com.google.android.gms",
+        "com.google.android.apps.walletnfcrel"
+    };
+
+    private static FlutterBraintreeGooglePayReadinessCache instance;
+
+    private final Context applicationContext;
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    private BroadcastReceiver packageReceiver;
+
+    private FlutterBraintreeGooglePayReadinessCache(Context context) {
+        this.applicationContext = context.getApplicationContext();
+    }
+
+    public static synchronized FlutterBraintreeGooglePayReadinessCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new FlutterBraintreeGooglePayReadinessCache(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Delivers the cached readiness for the authorization, or asks Google Pay and caches the answer.
+     */
+    public void check(String authorization, Callback callback) {
+        Boolean cached = null;
+        synchronized (this) {
+            Entry entry = entries.get(authorization);
+            if (entry != null && entry.inFlight) {
+                entry.callbacks.add(callback);
+                return;
+            }
+            if (entry != null && !entry.isExpired()) {
+                cached = entry.isReadyToPay;
+            } else {
+                entry = new Entry();
+                entry.callbacks.add(callback);
+                entries.put(authorization, entry);
+            }
+        }
+        if (cached != null) {
+            callback.onReadiness(cached);
+            return;
+        }
+
+        // Readiness fetches the gateway configuration, so a flaky network is retried here
+        FlutterBraintreeRetryPolicy.getInstance().execute(authorization, retryCallback ->
+            FlutterBraintreeClientRegistry.getInstance(applicationContext).getGooglePayClient(authorization)
+                .isReadyToPay(applicationContext, readinessResult -> {
+                    Exception error = readinessResult instanceof GooglePayReadinessResult.NotReadyToPay
+                        ? ((GooglePayReadinessResult.NotReadyToPay) readinessResult).getError() : null;
+                    if (error != null) {
+                        retryCallback.onFailure(error);
+                    } else {
+                        retryCallback.onSuccess(readinessResult instanceof GooglePayReadinessResult.ReadyToPay);
+                    }
+                }), new FlutterBraintreeRetryPolicy.Callback<Boolean>() {
+                @Override
+                public void onSuccess(Boolean isReadyToPay) {
+                    FlutterBraintreeLog.d("FlutterBraintreeGooglePayReadinessCache", "isReadyToPay =", isReadyToPay);
+                    onChecked(authorization, isReadyToPay, true);
+                }
+
+                @Override
+                public void onFailure(Exception error) {
+                    // A check that failed to reach the gateway says nothing about the device, do not keep it
+                    FlutterBraintreeLog.w("FlutterBraintreeGooglePayReadinessCache", "readiness check failed", error);
+                    onChecked(authorization, false, false);
+                }
+            });
+    }
+
+    public synchronized void invalidateAll() {
+        entries.values().removeIf(entry -> !entry.inFlight);
+    }
+
+    /**
+     * Listens for installs, updates and removals of the packages Google Pay readiness depends on.
+     */
+    public synchronized void startWatchingPackages() {
+        if (packageReceiver != null) return;
+        packageReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Uri data = intent.getData();
+                String packageName = data == null ? null : data.getSchemeSpecificPart();
+                for (String watched : WATCHED_PACKAGES) {
+                    if (watched.equals(packageName)) {
+                        FlutterBraintreeLog.d("FlutterBraintreeGooglePayReadinessCache", "invalidated by package change");
+                        invalidateAll();
+                        return;
+                    }
+                }
+            }
+        };
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        applicationContext.registerReceiver(packageReceiver, filter);
+    }
+
+    public synchronized void stopWatchingPackages() {
+        if (packageReceiver == null) return;
+        applicationContext.unregisterReceiver(packageReceiver);
+        packageReceiver = null;
+    }
+
+    private void onChecked(String authorization, boolean isReadyToPay, boolean cacheable) {
+        List<Callback> callbacks;
+        synchronized (this) {
+            Entry entry = entries.get(authorization);
+            if (entry == null) return;
+            if (!cacheable) {
+                entries.remove(authorization);
+            }
+            entry.inFlight = false;
+            entry.isReadyToPay = isReadyToPay;
+            entry.checkedAt = SystemClock.elapsedRealtime();
+            callbacks = new ArrayList<>(entry.callbacks);
+            entry.callbacks.clear();
+        }
+        for (Callback callback : callbacks) {
+            callback.onReadiness(isReadyToPay);
+        }
+    }
+
+    private static class Entry {
+        boolean inFlight = true;
+        boolean isReadyToPay;
+        long checkedAt;
+        final List<Callback> callbacks = new ArrayList<>();
+
+        boolean isExpired() {
+            return SystemClock.elapsedRealtime() - checkedAt > TTL_MS;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.flutter_braintree;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.HashMap;
+import java.util.List;
+
+import com.braintreepayments.api.card.Card;
+import com.braintreepayments.api.card.CardClient;
+import com.braintreepayments.api.card.CardResult;
+import com.braintreepayments.api.core.PaymentMethodNonce;
+
+import io.flutter.plugin.common.MethodChannel.Result;
+
+/**
+ * Runs flows that need no UI directly from the plugin, without starting
+ * {@link FlutterBraintreeCustom}, and replies on the method channel.
+ */
+public class FlutterBraintreeHeadlessHandler {
+
+    private final Context context;
+
+    public FlutterBraintreeHeadlessHandler(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public interface CardCallback {
+        void onNonce(FlutterBraintreeNonceResult nonceResult);
+
+        void onError(Exception error);
+    }
+
+    static final int DEFAULT_BATCH_CONCURRENCY = 4;
+    static final int BATCH_EVENT_BUFFER = 256;
+
+    public void tokenizeCreditCard(int requestId, String authorization, FlutterBraintreeCardRequest request, int fields, Result result) {
+        FlutterBraintreeLog.d("FlutterBraintreeHeadlessHandler", "tokenizeCreditCard");
+        tokenizeCard(requestId, authorization, request, fields, new CardCallback() {
+            @Override
+            public void onNonce(FlutterBraintreeNonceResult nonceResult) {
+                result.success(nonceResult);
+            }
+
+            @Override
+            public void onError(Exception error) {
+                result.error("error", error.getMessage() + " in method: tokenizeCreditCard", null);
+            }
+        });
+    }
+
+    /**
+     * Tokenizes every card in {@code requests}, running at most {@code maxConcurrency} at a time.
+     * Each card's nonce or error is emitted on {@code events} as soon as it finishes; the
+     * result completes with the number of successes and failures once the whole batch is done.
+     * Events and the result both go out on the main thread, so every event reaches Dart first.
+     */
+    public void tokenizeCreditCards(int requestId, String authorization, int batchId, List<FlutterBraintreeCardRequest> requests, int maxConcurrency,
+                                    int fields, FlutterBraintreeEventStream events, FlutterBraintreeOperation operation) {
+        FlutterBraintreeLog.d("FlutterBraintreeHeadlessHandler", "tokenizeCreditCards count =", requests.size());
+        new CardBatch(requestId, authorization, batchId, requests, fields, events, operation).start(Math.max(1, maxConcurrency));
+    }
+
+    private void tokenizeCard(int requestId, String authorization, FlutterBraintreeCardRequest request, int fields, CardCallback callback) {
+        Card card = request.toCard();
+        String binBrand = FlutterBraintreeBinIndex.getInstance(context).lookup(request.cardNumber);
+
+        FlutterBraintreeClientRegistry clientRegistry = FlutterBraintreeClientRegistry.getInstance(context);
+        CardClient cardClient = clientRegistry.getCardClient(authorization);
+        FlutterBraintreeTracer.mark(requestId, FlutterBraintreeTracer.CLIENT_CONSTRUCTED);
+        FlutterBraintreeTracer.mark(requestId, FlutterBraintreeTracer.TOKENIZING);
+        FlutterBraintreeRetryPolicy.getInstance().execute(authorization, retryCallback ->
+            cardClient.tokenize(card, cardResult -> {
+                if (cardResult instanceof CardResult.Success) {
+                    retryCallback.onSuccess(((CardResult.Success) cardResult).getNonce());
+                } else if (cardResult instanceof CardResult.Failure) {
+                    retryCallback.onFailure(((CardResult.Failure) cardResult).getError());
+                }
+            }), new FlutterBraintreeRetryPolicy.Callback<PaymentMethodNonce>() {
+                @Override
+                public void onSuccess(PaymentMethodNonce nonce) {
+                    FlutterBraintreeTracer.mark(requestId, FlutterBraintreeTracer.TOKENIZE_COMPLETE);
+                    FlutterBraintreeDeviceDataCache.getInstance(context).await(
+                        authorization, FlutterBraintreeDeviceDataCache.DEFAULT_WAIT_MS, deviceData -> {
+                            FlutterBraintreeNonceResult nonceResult = FlutterBraintreeNonceResult.fromNonce(nonce, deviceData, fields);
+                            nonceResult.binBrand = binBrand;
+                            callback.onNonce(nonceResult);
+                        });
+                }
+
+                @Override
+                public void onFailure(Exception error) {
+                    FlutterBraintreeTracer.mark(requestId, FlutterBraintreeTracer.TOKENIZE_COMPLETE);
+                    clientRegistry.onFailure(authorization, error);
+                    callback.onError(error);
+                }
+            });
+    }
+
+    public void checkGooglePayReady(String authorization, Result result) {
+        FlutterBraintreeLog.d("FlutterBraintreeHeadlessHandler", "checkGooglePayReady");
+        FlutterBraintreeGooglePayReadinessCache.getInstance(context).check(authorization, isReadyToPay -> {
+            if (isReadyToPay) {
+                result.success(true);
+            } else {
+                result.error("error", "Google Pay is not ready in method: checkGooglePayReady", null);
+            }
+        });
+    }
+
+    /**
+     * The batch state is only touched on the main thread: {@link #start} and every card
+     * callback hop there first, whichever thread they were called on, so it needs no locking.
+     */
+    private class CardBatch {
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+        private final int requestId;
+        private final String authorization;
+        private final int batchId;
+        private final List<FlutterBraintreeCardRequest> requests;
+        private final int fields;
+        private final FlutterBraintreeEventStream events;
+        private final FlutterBraintreeOperation operation;
+        private int nextIndex = 0;
+        private int finished = 0;
+        private int failed = 0;
+
+        CardBatch(int requestId, String authorization, int batchId, List<FlutterBraintreeCardRequest> requests, int fields,
+                  FlutterBraintreeEventStream events, FlutterBraintreeOperation operation) {
+            this.requestId = requestId;
+            this.authorization = authorization;
+            this.batchId = batchId;
+            this.requests = requests;
+            this.fields = fields;
+            this.events = events;
+            this.operation = operation;
+        }
+
+        void start(int maxConcurrency) {
+            if (Looper.myLooper() != Looper.getMainLooper()) {
+                mainHandler.post(() -> start(maxConcurrency));
+                return;
+            }
+            if (requests.isEmpty()) {
+                complete();
+                return;
+            }
+            int initial = Math.min(maxConcurrency, requests.size());
+            for (int i = 0; i < initial; i++) {
+                tokenizeNext();
+            }
+        }
+
+        private void tokenizeNext() {
+            // A canceled or expired batch starts no more cards
+            if (operation.isDone() || nextIndex >= requests.size()) return;
+            int index = nextIndex++;
+            HashMap<String, String> cardErrors = FlutterBraintreeCardValidator.blockingErrors(
+                requests.get(index), FlutterBraintreeBinIndex.getInstance(context));
+            if (!cardErrors.isEmpty()) {
+                failed++;
+                HashMap<String, Object> event = createEvent(index);
+                event.put("error", "Invalid card");
+                event.put("fieldErrors", cardErrors);
+                onCardFinished(event);
+                return;
+            }
+            // Cards in a batch share the batch's trace, only the batch as a whole is timed
+            tokenizeCard(-1, authorization, requests.get(index), fields, new CardCallback() {
+                @Override
+                public void onNonce(FlutterBraintreeNonceResult nonceResult) {
+                    mainHandler.post(() -> {
+                        HashMap<String, Object> event = createEvent(index);
+                        // Batch events go out on a standard event channel, so they still carry a map
+                        event.put("nonce", nonceResult.toMap());
+                        onCardFinished(event);
+                    });
+                }
+
+                @Override
+                public void onError(Exception error) {
+                    mainHandler.post(() -> {
+                        failed++;
+                        HashMap<String, Object> event = createEvent(index);
+                        event.put("error", error.getMessage());
+                        onCardFinished(event);
+                    });
+                }
+            });
+        }
+
+        private HashMap<String, Object> createEvent(int index) {
+            HashMap<String, Object> event = new HashMap<>();
+            event.put("batchId", batchId);
+            event.put("index", index);
+            return event;
+        }
+
+        private void onCardFinished(HashMap<String, Object> event) {
+            if (operation.isDone()) return;
+            events.emit(event);
+            // Each finished card counts as progress, so a long batch only times out if it stalls
+            FlutterBraintreeTracer.mark(requestId, FlutterBraintreeTracer.TOKENIZE_COMPLETE);
+            finished++;
+            if (finished == requests.size()) {
+                complete();
+            } else {
+                tokenizeNext();
+            }
+        }
+
+        private void complete() {
+            HashMap<String, Object> summary = new HashMap<>();
+            summary.put("succeeded", requests.size() - failed);
+            summary.put("failed", failed);
+            operation.success(summary);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.flutter_braintree;
+
+import android.content.Context;
+import android.content.Intent;
+
+import androidx.activity.ComponentActivity;
+
+import com.braintreepayments.api.core.PaymentMethodNonce;
+
+/**
+ * Where a UI flow runs and reports its outcome: either the {@link FlutterBraintreeCustom}
+ * trampoline activity, or {@link FlutterBraintreeHostFlow} directly on the Flutter host
+ * activity.
+ */
+public interface FlutterBraintreeHost {
+
+    int getRequestId();
+
+    /** The flow's arguments, in the extras the plugin puts on the trampoline intent. */
+    Intent getIntent();
+
+    Context getApplicationContext();
+
+    /** The activity browser switches launch from, or null if there is none right now. */
+    ComponentActivity getActivity();
+
+    void onPaymentMethodNonceCreated(PaymentMethodNonce paymentMethodNonce);
+
+    void onError(Exception error);
+
+    void onCancel();
+}
@@ -0,0 +1,118 @@
+package com.example.flutter_braintree;
+
+import android.content.Context;
+import android.content.Intent;
+
+import androidx.activity.ComponentActivity;
+
+import com.braintreepayments.api.core.PaymentMethodNonce;
+
+/**
+ * Runs a 3D Secure or Google Pay flow directly on the Flutter host activity instead of
+ * starting {@link FlutterBraintreeCustom}, and replies to the operation itself.
+ *
+ * Skipping the trampoline saves an activity start, a layout inflation and the round trip
+ * of the result through an intent. The host's launchers must have been registered while
+ * it was created, see {@link FlutterBraintreeLaunchers}. Only touched on the main thread.
+ */
+final class FlutterBraintreeHostFlow implements FlutterBraintreeHost {
+
+    private final Context applicationContext;
+    private final Intent intent;
+    private final FlutterBraintreeOperation operation;
+    private final FlutterBraintreeFlowScope scope;
+    private final String authorization;
+    private final int fields;
+    private final String binBrand;
+    private ComponentActivity activity;
+
+    FlutterBraintreeHostFlow(ComponentActivity activity, Intent intent, FlutterBraintreeOperation operation) {
+        this.applicationContext = activity.getApplicationContext();
+        this.activity = activity;
+        this.intent = intent;
+        this.operation = operation;
+        this.authorization = intent.getStringExtra("authorization");
+        this.fields = intent.getIntExtra("fields", FlutterBraintreeNonceResult.ALL_FIELDS);
+        this.binBrand = FlutterBraintreeBinIndex.getInstance(applicationContext).lookup(intent.getStringExtra("cardNumber"));
+        this.scope = new FlutterBraintreeFlowScope(this);
+        scope.onClose(() -> this.activity = null);
+    }
+
+    void start(FlutterBraintreeLaunchers launchers) {
+        String type = intent.getStringExtra("type");
+        FlutterBraintreeLog.d("FlutterBraintreeHostFlow", "start type =", type);
+        FlutterBraintreeTracer.mark(getRequestId(), FlutterBraintreeTracer.ACTIVITY_CREATED);
+        try {
+            if (type.equals("startThreeDSecureFlow")) {
+                new FlutterBraintree3DSHandler(scope, launchers).startThreeDSecureFlow();
+            } else if (type.equals("tokenizeAndVerifyCard")) {
+                new FlutterBraintree3DSHandler(scope, launchers).tokenizeAndVerifyCard();
+            } else if (type.equals("startGooglePaymentFlow")) {
+                new FlutterBraintreeGooglePayHandler(scope, launchers).startGooglePaymentFlow(intent);
+            } else {
+                throw new Exception("Invalid request type: " + type);
+            }
+        } catch (Exception e) {
+            onError(e);
+        }
+    }
+
+    /** Follows the host across configuration changes, null while it is detached. */
+    void setActivity(ComponentActivity activity) {
+        if (!scope.isClosed()) {
+            this.activity = activity;
+        }
+    }
+
+    /** Drops the flow without replying, for a canceled or expired operation. */
+    void close() {
+        scope.close();
+    }
+
+    @Override
+    public int getRequestId() {
+        return operation.getRequestId();
+    }
+
+    @Override
+    public Intent getIntent() {
+        return intent;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return applicationContext;
+    }
+
+    @Override
+    public ComponentActivity getActivity() {
+        return activity;
+    }
+
+    @Override
+    public void onPaymentMethodNonceCreated(PaymentMethodNonce paymentMethodNonce) {
+        FlutterBraintreeLog.d("FlutterBraintreeHostFlow", "onPaymentMethodNonceCreated");
+        FlutterBraintreeDeviceDataCache.getInstance(applicationContext).await(
+            authorization, FlutterBraintreeDeviceDataCache.DEFAULT_WAIT_MS, deviceData ->
+                scope.deliver(host -> {
+                    FlutterBraintreeNonceResult nonceResult =
+                        FlutterBraintreeNonceResult.fromNonce(paymentMethodNonce, deviceData, fields);
+                    nonceResult.binBrand = binBrand;
+                    operation.success(nonceResult);
+                    scope.close();
+                }));
+    }
+
+    @Override
+    public void onError(Exception error) {
+        FlutterBraintreeLog.d("FlutterBraintreeHostFlow", "onError");
+        operation.error("error", error.getMessage() + " in method: " + operation.getMethod(), null);
+        scope.close();
+    }
+
+    @Override
+    public void onCancel() {
+        FlutterBraintreeLog.d("FlutterBraintreeHostFlow", "onCancel");
+        onError(new Exception("User canceled the operation"));
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.flutter_braintree;
+
+import androidx.activity.ComponentActivity;
+
+import com.braintreepayments.api.googlepay.GooglePayLauncher;
+import com.braintreepayments.api.googlepay.GooglePayPaymentAuthRequest;
+import com.braintreepayments.api.googlepay.GooglePayPaymentAuthResult;
+import com.braintreepayments.api.threedsecure.ThreeDSecureLauncher;
+import com.braintreepayments.api.threedsecure.ThreeDSecurePaymentAuthRequest;
+import com.braintreepayments.api.threedsecure.ThreeDSecurePaymentAuthResult;
+
+/**
+ * The 3D Secure and Google Pay launchers of one activity, and the flow their results go to.
+ *
+ * Launchers go through the activity's {@code ActivityResultRegistry}, so they must be
+ * registered while the activity is being created, before any flow exists. Results are
+ * routed to whichever handler set itself as target; a result with no target is dropped.
+ * {@link #register} can be called again for a recreated activity, the targets carry over.
+ */
+final class FlutterBraintreeLaunchers {
+
+    interface ThreeDSecureTarget {
+        void onThreeDSecureAuthResult(ThreeDSecurePaymentAuthResult paymentAuthResult);
+    }
+
+    interface GooglePayTarget {
+        void onGooglePayAuthResult(GooglePayPaymentAuthResult paymentAuthResult);
+    }
+
+    private volatile ThreeDSecureLauncher threeDSecureLauncher;
+    private volatile GooglePayLauncher googlePayLauncher;
+    private volatile ThreeDSecureTarget threeDSecureTarget;
+    private volatile GooglePayTarget googlePayTarget;
+
+    /** Registers the launchers on {@code activity}. Must be called before it is started. */
+    void register(ComponentActivity activity) {
+        threeDSecureLauncher = new ThreeDSecureLauncher(activity, paymentAuthResult -> {
+            ThreeDSecureTarget target = threeDSecureTarget;
+            if (target == null) {
+                FlutterBraintreeLog.w("FlutterBraintreeLaunchers", "3DS result without a flow, dropped");
+                return;
+            }
+            target.onThreeDSecureAuthResult(paymentAuthResult);
+        });
+        googlePayLauncher = new GooglePayLauncher(activity, paymentAuthResult -> {
+            GooglePayTarget target = googlePayTarget;
+            if (target == null) {
+                FlutterBraintreeLog.w("FlutterBraintreeLaunchers", "Google Pay result without a flow, dropped");
+                return;
+            }
+            target.onGooglePayAuthResult(paymentAuthResult);
+        });
+    }
+
+    /** Drops the launchers of an activity that is going away. */
+    void unregister() {
+        threeDSecureLauncher = null;
+        googlePayLauncher = null;
+    }
+
+    boolean isRegistered() {
+        return threeDSecureLauncher != null && googlePayLauncher != null;
+    }
+
+    synchronized void setThreeDSecureTarget(ThreeDSecureTarget target) {
+        threeDSecureTarget = target;
+    }
+
+    synchronized void setGooglePayTarget(GooglePayTarget target) {
+        googlePayTarget = target;
+    }
+
+    /** Clears the targets if they still belong to the flow that set them. */
+    synchronized void clearTargets(ThreeDSecureTarget threeDSecure, GooglePayTarget googlePay) {
+        if (threeDSecure != null && threeDSecureTarget == threeDSecure) {
+            threeDSecureTarget = null;
+        }
+        if (googlePay != null && googlePayTarget == googlePay) {
+            googlePayTarget = null;
+        }
+    }
+
+    void launchThreeDSecure(ThreeDSecurePaymentAuthRequest.ReadyToLaunch paymentAuthRequest) {
+        ThreeDSecureLauncher launcher = threeDSecureLauncher;
+        if (launcher == null) {
+            throw new IllegalStateException("3DS launcher is not registered");
+        }
+        launcher.launch(paymentAuthRequest);
+    }
+
+    void launchGooglePay(GooglePayPaymentAuthRequest.ReadyToLaunch paymentAuthRequest) {
+        GooglePayLauncher launcher = googlePayLauncher;
+        if (launcher == null) {
+            throw new IllegalStateException("Google Pay launcher is not registered");
+        }
+        launcher.launch(paymentAuthRequest);
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.flutter_braintree;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Level-gated flight recorder for plugin events.
+ *
+ * Events below the current level return before doing any work. Recorded events keep
+ * the constant message and up to two arguments in a fixed-size ring, and are only
+ * formatted into strings when Dart asks for a dump through {@code dumpLogs}. Throwables
+ * are the exception: they are formatted when recorded, since an SDK error can reference
+ * clients and contexts that the ring would otherwise keep alive. Mirroring
+ * to logcat is off by default. Callers pass only values that are safe to keep in
+ * memory: never authorizations, nonces, device data, card or address fields.
+ */
+public final class FlutterBraintreeLog {
+
+    public static final int DEBUG = Log.DEBUG;
+    public static final int INFO = Log.INFO;
+    public static final int WARN = Log.WARN;
+    public static final int ERROR = Log.ERROR;
+    public static final int NONE = Integer.MAX_VALUE;
+
+    static final int CAPACITY = 256;
+    static final int STACK_FRAMES = 5;
+
+    private static volatile int level = WARN;
+    private static volatile boolean logcatEnabled = false;
+
+    private static final long[] times = new long[CAPACITY];
+    private static final int[] levels = new int[CAPACITY];
+    private static final String[] tags = new String[CAPACITY];
+    private static final String[] messages = new String[CAPACITY];
+    private static final Object[] firstArgs = new Object[CAPACITY];
+    private static final Object[] secondArgs = new Object[CAPACITY];
+    private static int next = 0;
+    private static int count = 0;
+
+    private FlutterBraintreeLog() {
+    }
+
+    public static void setLevel(int newLevel) {
+        level = newLevel;
+    }
+
+    public static void setLogcatEnabled(boolean enabled) {
+        logcatEnabled = enabled;
+    }
+
+    public static boolean isEnabled(int eventLevel) {
+        return eventLevel >= level;
+    }
+
+    public static void d(String tag, String message) {
+        if (DEBUG < level) return;
+        record(DEBUG, tag, message, null, null);
+    }
+
+    public static void d(String tag, String message, Object arg) {
+        if (DEBUG < level) return;
+        record(DEBUG, tag, message, arg, null);
+    }
+
+    public static void d(String tag, String message, Object arg1, Object arg2) {
+        if (DEBUG < level) return;
+        record(DEBUG, tag, message, arg1, arg2);
+    }
+
+    public static void w(String tag, String message) {
+        if (WARN < level) return;
+        record(WARN, tag, message, null, null);
+    }
+
+    public static void w(String tag, String message, Object arg) {
+        if (WARN < level) return;
+        record(WARN, tag, message, arg, null);
+    }
+
+    public static void e(String tag, String message) {
+        if (ERROR < level) return;
+        record(ERROR, tag, message, null, null);
+    }
+
+    public static void e(String tag, String message, Object arg) {
+        if (ERROR < level) return;
+        record(ERROR, tag, message, arg, null);
+    }
+
+    /** Formats the recorded events, oldest first. */
+    public static synchronized List<String> dump() {
+        List<String> lines = new ArrayList<>(count);
+        int start = (next - count + CAPACITY) % CAPACITY;
+        for (int i = 0; i < count; i++) {
+            int index = (start + i) % CAPACITY;
+            lines.add(times[index] + " " + levelName(levels[index]) + " " + tags[index] + ": "
+                + format(messages[index], firstArgs[index], secondArgs[index]));
+        }
+        return lines;
+    }
+
+    public static synchronized void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            firstArgs[i] = null;
+            secondArgs[i] = null;
+        }
+        next = 0;
+        count = 0;
+    }
+
+    private static synchronized void record(int eventLevel, String tag, String message, Object arg1, Object arg2) {
+        arg1 = retainable(arg1);
+        arg2 = retainable(arg2);
+        times[next] = SystemClock.elapsedRealtime();
+        levels[next] = eventLevel;
+        tags[next] = tag;
+        messages[next] = message;
+        firstArgs[next] = arg1;
+        secondArgs[next] = arg2;
+        next = (next + 1) % CAPACITY;
+        if (count < CAPACITY) {
+            count++;
+        }
+        if (logcatEnabled) {
+            Log.println(eventLevel, tag, format(message, arg1, arg2));
+        }
+    }
+
+    /** Replaces a throwable by its type, message, first stack frames and cause. */
+    private static Object retainable(Object arg) {
+        if (!(arg instanceof Throwable)) return arg;
+        Throwable error = (Throwable) arg;
+        StringBuilder sb = new StringBuilder(error.toString());
+        StackTraceElement[] frames = error.getStackTrace();
+        for (int i = 0; i < Math.min(STACK_FRAMES, frames.length); i++) {
+            sb.append("\n    at ").append(frames[i]);
+        }
+        if (frames.length > STACK_FRAMES) {
+            sb.append("\n    ...");
+        }
+        if (error.getCause() != null && error.getCause() != error) {
+            sb.append("\nCaused by: ").append(error.getCause());
+        }
+        return sb.toString();
+    }
+
+    private static String format(String message, Object arg1, Object arg2) {
+        if (arg1 == null && arg2 == null) return message;
+        StringBuilder sb = new StringBuilder(message);
+        sb.append(' ').append(arg1);
+        if (arg2 != null) {
+            sb.append(' ').append(arg2);
+        }
+        return sb.toString();
+    }
+
+    private static String levelName(int eventLevel) {
+        switch (eventLevel) {
+            case DEBUG:
+                return "D";
+            case INFO:
+                return "I";
+            case WARN:
+                return "W";
+            default:
+                return "E";
+        }
+    }
+}
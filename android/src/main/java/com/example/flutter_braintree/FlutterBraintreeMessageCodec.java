@@ -0,0 +1,127 @@
+package com.example.flutter_braintree;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.StandardMessageCodec;
+import io.flutter.plugin.common.StandardMethodCodec;
+
+/**
+ * Message codec of the {@code flutter_braintree.custom} channel.
+ *
+ * Extends the standard codec with two typed values: card requests from Dart are decoded
+ * straight into {@link FlutterBraintreeCardRequest}, and {@link FlutterBraintreeNonceResult}
+ * replies are written field by field instead of through an intermediate map. Each typed
+ * value starts with {@link #SCHEMA_VERSION}, which must match the Dart {@code
+ * BraintreeMessageCodec}; a mismatch or a field of the wrong type fails the decode at once.
+ * Every other value, including plain request maps, goes through the standard encoding.
+ *
+ * A method call whose arguments fail to decode still reaches the handler, through
+ * {@link #METHOD_CODEC}, with a {@link DecodeError} in place of its arguments, so it can
+ * reply with a regular argument error.
+ */
+final class FlutterBraintreeMessageCodec extends StandardMessageCodec {
+
+    static final FlutterBraintreeMessageCodec INSTANCE = new FlutterBraintreeMessageCodec();
+    static final StandardMethodCodec METHOD_CODEC = new MethodCodec();
+
+    static final int SCHEMA_VERSION = 1;
+
+    private static final byte CARD_REQUEST = (byte) 128;
+    private static final byte NONCE_RESULT = (byte) 129;
+
+    private FlutterBraintreeMessageCodec() {
+    }
+
+    @Override
+    protected void writeValue(ByteArrayOutputStream stream, Object value) {
+        if (!(value instanceof FlutterBraintreeNonceResult)) {
+            super.writeValue(stream, value);
+            return;
+        }
+        FlutterBraintreeNonceResult result = (FlutterBraintreeNonceResult) value;
+        stream.write(NONCE_RESULT);
+        stream.write(SCHEMA_VERSION);
+        writeValue(stream, result.nonce);
+        writeValue(stream, result.isDefault);
+        writeValue(stream, result.typeLabel);
+        writeValue(stream, result.description);
+        writeValue(stream, result.paypalPayerId);
+        writeValue(stream, result.cardType);
+        writeValue(stream, result.lastTwo);
+        writeValue(stream, result.binBrand);
+        writeValue(stream, result.deviceData);
+        boolean billing = (result.fields & FlutterBraintreeNonceResult.FIELD_BILLING) != 0;
+        writeValue(stream, billing);
+        if (billing) {
+            for (String billingValue : result.billingInfo) {
+                writeValue(stream, billingValue);
+            }
+        }
+    }
+
+    @Override
+    protected Object readValueOfType(byte type, ByteBuffer buffer) {
+        switch (type) {
+            case CARD_REQUEST:
+                checkSchemaVersion(buffer);
+                return new FlutterBraintreeCardRequest(
+                    readString(buffer), readString(buffer), readString(buffer), readString(buffer), readString(buffer));
+            default:
+                return super.readValueOfType(type, buffer);
+        }
+    }
+
+    private static void checkSchemaVersion(ByteBuffer buffer) {
+        int version = buffer.get() & 0xff;
+        if (version != SCHEMA_VERSION) {
+            throw new IllegalArgumentException("Unsupported message schema version " + version);
+        }
+    }
+
+    /** The arguments of a method call that could not be decoded. */
+    static final class DecodeError {
+        final String message;
+
+        DecodeError(String message) {
+            this.message = message;
+        }
+    }
+
+    private static final class MethodCodec extends StandardMethodCodec {
+
+        MethodCodec() {
+            super(INSTANCE);
+        }
+
+        @Override
+        public MethodCall decodeMethodCall(ByteBuffer methodCall) {
+            methodCall.order(ByteOrder.nativeOrder());
+            Object method = INSTANCE.readValue(methodCall);
+            if (!(method instanceof String)) {
+                throw new IllegalArgumentException("Method call corrupted");
+            }
+            Object arguments;
+            try {
+                arguments = INSTANCE.readValue(methodCall);
+                if (methodCall.hasRemaining()) {
+                    throw new IllegalArgumentException("Method call corrupted");
+                }
+            } catch (IllegalArgumentException e) {
+                FlutterBraintreeLog.w("FlutterBraintreeMessageCodec", "cannot decode arguments of method:", method);
+                arguments = new DecodeError(e.getMessage());
+            }
+            return new MethodCall((String) method, arguments);
+        }
+    }
+
+    private String readString(ByteBuffer buffer) {
+        Object value = readValue(buffer);
+        if (value != null && !(value instanceof String)) {
+            throw new IllegalArgumentException("Expected a string but got " + value.getClass().getSimpleName());
+        }
+        return (String) value;
+    }
+}
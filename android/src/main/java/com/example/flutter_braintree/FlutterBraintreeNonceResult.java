@@ -0,0 +1,220 @@
+package com.example.flutter_braintree;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.HashMap;
+import java.util.List;
+
+import com.braintreepayments.api.card.CardNonce;
+import com.braintreepayments.api.core.PaymentMethodNonce;
+import com.braintreepayments.api.core.PostalAddress;
+import com.braintreepayments.api.googlepay.GooglePayCardNonce;
+import com.braintreepayments.api.paypal.PayPalAccountNonce;
+
+/**
+ * Flat, versioned form of a tokenized payment method, passed from
+ * {@link FlutterBraintreeCustom} to the plugin as a Parcelable extra and turned
+ * into the channel reply with {@link #toMap()}.
+ *
+ * {@code nonce}, {@code isDefault}, {@code deviceData} and the payment method type are
+ * always included. Billing address and payer details are only read from the nonce and
+ * sent when the caller's projection asks for them.
+ */
+public class FlutterBraintreeNonceResult implements Parcelable {
+
+    static final int SCHEMA_VERSION = 3;
+
+    public static final int FIELD_BILLING = 1;
+    public static final int FIELD_PAYER = 1 << 1;
+    public static final int ALL_FIELDS = FIELD_BILLING | FIELD_PAYER;
+
+    static final String[] BILLING_KEYS = {
+        "givenName",
+        "phoneNumber",
+        "streetAddress",
+        "extendedAddress",
+        "locality",
+        "region",
+        "postalCode",
+        "countryCodeAlpha2"
+    };
+
+    String nonce;
+    boolean isDefault;
+    String typeLabel;
+    String description;
+    String paypalPayerId;
+    String cardType;
+    String lastTwo;
+    // Brand looked up locally from the entered card number, known before the gateway answers
+    String binBrand;
+    String deviceData;
+    int fields;
+    final String[] billingInfo = new String[BILLING_KEYS.length];
+
+    FlutterBraintreeNonceResult() {
+    }
+
+    /**
+     * Parses the Dart projection, a list of {@code "billing"} and {@code "payer"}.
+     * A missing projection means every field, as before projections existed.
+     */
+    public static int parseFields(List<String> projection) {
+        if (projection == null) return ALL_FIELDS;
+        int fields = 0;
+        for (String field : projection) {
+            if ("billing".equals(field)) {
+                fields |= FIELD_BILLING;
+            } else if ("payer".equals(field)) {
+                fields |= FIELD_PAYER;
+            }
+        }
+        return fields;
+    }
+
+    public static FlutterBraintreeNonceResult fromNonce(PaymentMethodNonce paymentMethodNonce, String deviceData, int fields) {
+        FlutterBraintreeNonceResult result = new FlutterBraintreeNonceResult();
+        result.nonce = paymentMethodNonce.getString();
+        result.isDefault = paymentMethodNonce.isDefault();
+        result.deviceData = deviceData;
+        result.fields = fields;
+        boolean payer = (fields & FIELD_PAYER) != 0;
+        PostalAddress billingAddress = null;
+        if (paymentMethodNonce instanceof PayPalAccountNonce) {
+            PayPalAccountNonce paypalAccount = (PayPalAccountNonce) paymentMethodNonce;
+            result.typeLabel = "PayPal";
+            if (payer) {
+                result.paypalPayerId = paypalAccount.getPayerId();
+                result.description = paypalAccount.getEmail();
+            }
+            billingAddress = paypalAccount.getBillingAddress();
+        } else if (paymentMethodNonce instanceof CardNonce) {
+            CardNonce card = (CardNonce) paymentMethodNonce;
+            result.typeLabel = card.getCardType();
+            result.description = "ending in ••" + card.getLastTwo();
+        } else if (paymentMethodNonce instanceof GooglePayCardNonce) {
+            GooglePayCardNonce googlePayCard = (GooglePayCardNonce) paymentMethodNonce;
+            result.cardType = googlePayCard.getCardType();
+            result.typeLabel = "GooglePay";
+            result.lastTwo = googlePayCard.getLastTwo();
+            if (payer) {
+                result.description = googlePayCard.getEmail();
+            }
+            billingAddress = googlePayCard.getBillingAddress();
+        }
+        if ((fields & FIELD_BILLING) != 0) {
+            result.fillBillingInfo(billingAddress);
+        }
+        return result;
+    }
+
+    private void fillBillingInfo(PostalAddress address) {
+        if (address != null) {
+            billingInfo[0] = address.getRecipientName();
+            billingInfo[1] = address.getPhoneNumber();
+            billingInfo[2] = address.getStreetAddress();
+            billingInfo[3] = address.getExtendedAddress();
+            billingInfo[4] = address.getLocality();
+            billingInfo[5] = address.getRegion();
+            billingInfo[6] = address.getPostalCode();
+            billingInfo[7] = address.getCountryCodeAlpha2();
+        }
+        for (int i = 0; i < billingInfo.length; i++) {
+            if (billingInfo[i] == null) {
+                billingInfo[i] = "";
+            }
+        }
+    }
+
+    /**
+     * Builds the map sent over the method channel. Keys match what the Dart
+     * {@code BraintreePaymentMethodNonce.fromJson} reads; absent values and fields
+     * outside the projection are left out.
+     */
+    public HashMap<String, Object> toMap() {
+        HashMap<String, Object> nonceMap = new HashMap<>();
+        nonceMap.put("nonce", nonce);
+        nonceMap.put("isDefault", isDefault);
+        nonceMap.put("deviceData", deviceData);
+        if ((fields & FIELD_BILLING) != 0) {
+            HashMap<String, String> billingMap = new HashMap<>();
+            for (int i = 0; i < BILLING_KEYS.length; i++) {
+                billingMap.put(BILLING_KEYS[i], billingInfo[i]);
+            }
+            nonceMap.put("billingInfo", billingMap);
+        }
+        putIfPresent(nonceMap, "typeLabel", typeLabel);
+        putIfPresent(nonceMap, "description", description);
+        putIfPresent(nonceMap, "paypalPayerId", paypalPayerId);
+        putIfPresent(nonceMap, "cardType", cardType);
+        putIfPresent(nonceMap, "lastTwo", lastTwo);
+        putIfPresent(nonceMap, "binBrand", binBrand);
+        return nonceMap;
+    }
+
+    private static void putIfPresent(HashMap<String, Object> map, String key, String value) {
+        if (value != null) {
+            map.put(key, value);
+        }
+    }
+
+    protected FlutterBraintreeNonceResult(Parcel in) {
+        int version = in.readInt();
+        if (version != SCHEMA_VERSION) {
+            throw new IllegalStateException("Unsupported nonce result schema version: " + version);
+        }
+        nonce = in.readString();
+        isDefault = in.readInt() != 0;
+        typeLabel = in.readString();
+        description = in.readString();
+        paypalPayerId = in.readString();
+        cardType = in.readString();
+        lastTwo = in.readString();
+        binBrand = in.readString();
+        deviceData = in.readString();
+        fields = in.readInt();
+        if ((fields & FIELD_BILLING) != 0) {
+            for (int i = 0; i < BILLING_KEYS.length; i++) {
+                billingInfo[i] = in.readString();
+            }
+        }
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(SCHEMA_VERSION);
+        dest.writeString(nonce);
+        dest.writeInt(isDefault ? 1 : 0);
+        dest.writeString(typeLabel);
+        dest.writeString(description);
+        dest.writeString(paypalPayerId);
+        dest.writeString(cardType);
+        dest.writeString(lastTwo);
+        dest.writeString(binBrand);
+        dest.writeString(deviceData);
+        dest.writeInt(fields);
+        if ((fields & FIELD_BILLING) != 0) {
+            for (String value : billingInfo) {
+                dest.writeString(value);
+            }
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<FlutterBraintreeNonceResult> CREATOR = new Creator<FlutterBraintreeNonceResult>() {
+        @Override
+        public FlutterBraintreeNonceResult createFromParcel(Parcel in) {
+            return new FlutterBraintreeNonceResult(in);
+        }
+
+        @Override
+        public FlutterBraintreeNonceResult[] newArray(int size) {
+            return new FlutterBraintreeNonceResult[size];
+        }
+    };
+}
@@ -0,0 +1,148 @@
+package com.example.flutter_braintree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.flutter.plugin.common.MethodChannel.Result;
+
+/**
+ * One in-flight method call. The reply is guarded by a compare-and-set state machine
+ * (PENDING -> RUNNING -> COMPLETED), so whichever of the handler callbacks, activity
+ * results or teardown paths gets there first replies, and every later attempt is a no-op.
+ * Identical calls that arrive while it is in flight join it and get the same reply.
+ */
+public class FlutterBraintreeOperation implements Result {
+
+    static final int PENDING = 0;
+    static final int RUNNING = 1;
+    static final int COMPLETED = 2;
+
+    private final FlutterBraintreeOperationTracker tracker;
+    private final int requestId;
+    private final String method;
+    private final String authorization;
+    private final String key;
+    private final boolean launchesUi;
+    private final String launchId;
+    private final Result result;
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+    private ScheduledFuture<?> deadline;
+    private final List<Result> joined = new ArrayList<>();
+    private boolean closed = false;
+
+    FlutterBraintreeOperation(FlutterBraintreeOperationTracker tracker, int requestId, String method, String authorization,
+                              String key, boolean launchesUi, Result result) {
+        this.tracker = tracker;
+        this.requestId = requestId;
+        this.method = method;
+        this.authorization = authorization;
+        this.key = key;
+        this.launchesUi = launchesUi;
+        this.launchId = launchesUi ? UUID.randomUUID().toString() : null;
+        this.result = result;
+    }
+
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getAuthorization() {
+        return authorization;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    /** Identifies the UI launch across processes and engines, where request ids repeat. Null for headless calls. */
+    public String getLaunchId() {
+        return launchId;
+    }
+
+    public boolean launchesUi() {
+        return launchesUi;
+    }
+
+    public boolean isDone() {
+        return state.get() == COMPLETED;
+    }
+
+    /** Marks the operation as handed to its handler. Returns false if it already completed. */
+    public boolean markRunning() {
+        return state.compareAndSet(PENDING, RUNNING);
+    }
+
+    /** Adds a caller to be completed with this operation's reply. Returns false if it already replied. */
+    synchronized boolean join(Result caller) {
+        if (closed) return false;
+        joined.add(caller);
+        return true;
+    }
+
+    /** Replaces the pending stage deadline. The new one is dropped if the operation already completed. */
+    synchronized void setDeadline(ScheduledFuture<?> newDeadline) {
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+        deadline = newDeadline;
+        if (newDeadline != null && isDone()) {
+            newDeadline.cancel(false);
+        }
+    }
+
+    @Override
+    public void success(Object value) {
+        List<Result> callers = complete(value == null ? "canceled" : "success");
+        if (callers == null) return;
+        for (Result caller : callers) {
+            caller.success(value);
+        }
+    }
+
+    @Override
+    public void error(String errorCode, String errorMessage, Object errorDetails) {
+        List<Result> callers = complete(errorCode);
+        if (callers == null) return;
+        for (Result caller : callers) {
+            caller.error(errorCode, errorMessage, errorDetails);
+        }
+    }
+
+    @Override
+    public void notImplemented() {
+        List<Result> callers = complete("notImplemented");
+        if (callers == null) return;
+        for (Result caller : callers) {
+            caller.notImplemented();
+        }
+    }
+
+    /** Moves to COMPLETED and returns every caller to reply to, or null if it already completed. */
+    private List<Result> complete(String outcome) {
+        int current;
+        do {
+            current = state.get();
+            if (current == COMPLETED) {
+                return null;
+            }
+        } while (!state.compareAndSet(current, COMPLETED));
+        setDeadline(null);
+        tracker.remove(this);
+        FlutterBraintreeTracer.finish(requestId, outcome);
+        List<Result> callers = new ArrayList<>();
+        callers.add(result);
+        synchronized (this) {
+            closed = true;
+            callers.addAll(joined);
+            joined.clear();
+        }
+        return callers;
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.flutter_braintree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.flutter.plugin.common.MethodChannel.Result;
+
+/**
+ * Tracks in-flight method calls by request id.
+ *
+ * Calls that need no UI run concurrently. Calls that start an activity share the single
+ * host activity result, so only one of them may be in flight at a time.
+ *
+ * Every stage a flow reaches arms a deadline for reaching the next one, all on a single
+ * scheduler thread. An operation that misses its deadline is handed to the
+ * {@link ExpiryListener}, which replies with a timeout and tears the flow down.
+ *
+ * Operations are also indexed by {@link FlutterBraintreeRequestKey}, so a call identical
+ * to one in flight joins it instead of failing or starting a second flow.
+ */
+public class FlutterBraintreeOperationTracker implements FlutterBraintreeTracer.StageListener {
+
+    public interface ExpiryListener {
+        void onExpired(FlutterBraintreeOperation operation, String stage);
+    }
+
+    static final long DEFAULT_STAGE_TIMEOUT_MS = 30 * 1000;
+    static final long DEFAULT_UI_TIMEOUT_MS = 15 * 60 * 1000;
+
+    private static final Map<String, Long> DEFAULT_STAGE_TIMEOUTS_MS = new HashMap<>();
+
+    static {
+        DEFAULT_STAGE_TIMEOUTS_MS.put(FlutterBraintreeTracer.METHOD_CALL_RECEIVED, DEFAULT_STAGE_TIMEOUT_MS);
+        DEFAULT_STAGE_TIMEOUTS_MS.put(FlutterBraintreeTracer.ACTIVITY_CREATED, DEFAULT_STAGE_TIMEOUT_MS);
+        DEFAULT_STAGE_TIMEOUTS_MS.put(FlutterBraintreeTracer.CLIENT_CONSTRUCTED, DEFAULT_STAGE_TIMEOUT_MS);
+        DEFAULT_STAGE_TIMEOUTS_MS.put(FlutterBraintreeTracer.CONFIGURATION_FETCHED, DEFAULT_STAGE_TIMEOUT_MS);
+        DEFAULT_STAGE_TIMEOUTS_MS.put(FlutterBraintreeTracer.AUTH_REQUEST_CREATED, DEFAULT_STAGE_TIMEOUT_MS);
+        // The user is in the browser, challenge or sheet, which legitimately takes a while
+        DEFAULT_STAGE_TIMEOUTS_MS.put(FlutterBraintreeTracer.UI_LAUNCHED, DEFAULT_UI_TIMEOUT_MS);
+        DEFAULT_STAGE_TIMEOUTS_MS.put(FlutterBraintreeTracer.RETURNED_TO_APP, DEFAULT_STAGE_TIMEOUT_MS);
+        DEFAULT_STAGE_TIMEOUTS_MS.put(FlutterBraintreeTracer.TOKENIZING, DEFAULT_STAGE_TIMEOUT_MS);
+        DEFAULT_STAGE_TIMEOUTS_MS.put(FlutterBraintreeTracer.TOKENIZE_COMPLETE, DEFAULT_STAGE_TIMEOUT_MS);
+    }
+
+    private final AtomicInteger nextRequestId = new AtomicInteger(1);
+    private final ConcurrentHashMap<Integer, FlutterBraintreeOperation> operations = new ConcurrentHashMap<>();
+    private final AtomicReference<FlutterBraintreeOperation> uiOperation = new AtomicReference<>();
+    private final ConcurrentHashMap<String, FlutterBraintreeOperation> operationsByKey = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> stageTimeoutsMs = new ConcurrentHashMap<>(DEFAULT_STAGE_TIMEOUTS_MS);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExpiryListener expiryListener;
+
+    public FlutterBraintreeOperationTracker(ExpiryListener expiryListener) {
+        this.expiryListener = expiryListener;
+    }
+
+    /**
+     * Adds the caller to the in-flight operation with the same key. Returns false if there
+     * is none, in which case the caller should {@link #begin} its own.
+     */
+    public boolean join(String key, Result result) {
+        if (key == null) return false;
+        FlutterBraintreeOperation operation = operationsByKey.get(key);
+        return operation != null && operation.join(result);
+    }
+
+    /**
+     * Registers a new operation, or returns null if it launches UI and another UI
+     * operation is still in flight.
+     */
+    public FlutterBraintreeOperation begin(String method, String key, String authorization, boolean launchesUi, Result result) {
+        FlutterBraintreeOperation operation = new FlutterBraintreeOperation(
+            this, nextRequestId.getAndIncrement(), method, authorization, key, launchesUi, result);
+        if (launchesUi && !uiOperation.compareAndSet(null, operation)) {
+            return null;
+        }
+        operations.put(operation.getRequestId(), operation);
+        if (key != null) {
+            operationsByKey.put(key, operation);
+        }
+        FlutterBraintreeTracer.begin(operation.getRequestId(), method);
+        return operation;
+    }
+
+    public FlutterBraintreeOperation get(int requestId) {
+        return operations.get(requestId);
+    }
+
+    public FlutterBraintreeOperation getUiOperation() {
+        return uiOperation.get();
+    }
+
+    public List<FlutterBraintreeOperation> getAll() {
+        return new ArrayList<>(operations.values());
+    }
+
+    /**
+     * Sets how long a flow may stay in {@code stage} before it times out. Zero or less
+     * disables the deadline for that stage.
+     */
+    public void setStageTimeout(String stage, long timeoutMs) {
+        stageTimeoutsMs.put(stage, timeoutMs);
+    }
+
+    @Override
+    public void onStage(int requestId, String stage) {
+        FlutterBraintreeOperation operation = operations.get(requestId);
+        if (operation == null) return;
+        Long timeoutMs = stageTimeoutsMs.get(stage);
+        if (timeoutMs == null) return;
+        if (timeoutMs <= 0) {
+            operation.setDeadline(null);
+            return;
+        }
+        operation.setDeadline(scheduler.schedule(() -> {
+            if (!operation.isDone()) {
+                FlutterBraintreeLog.w("FlutterBraintreeOperationTracker", "operation timed out after stage", stage);
+                expiryListener.onExpired(operation, stage);
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS));
+    }
+
+    void remove(FlutterBraintreeOperation operation) {
+        operations.remove(operation.getRequestId(), operation);
+        if (operation.getKey() != null) {
+            operationsByKey.remove(operation.getKey(), operation);
+        }
+        uiOperation.compareAndSet(operation, null);
+    }
+}
@@ -1,10 +1,8 @@
 package com.example.flutter_braintree;
 
-import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.Context;
+import android.content.Intent;
 import android.net.Uri;
-import android.util.Log;
 import androidx.annotation.NonNull;
 
 import java.util.Map;
@@ -24,120 +22,158 @@ import com.braintreepayments.api.paypal.PayPalPaymentUserAction;
 
 public class FlutterBraintreePayPalHandler {
 
-    private final FlutterBraintreeCustom activity;
+    private final FlutterBraintreeFlowScope scope;
+    private final Context context;
+    private final String authorization;
     private final PayPalLauncher payPalLauncher;
-    
-    private static final String PREFS_NAME = "FlutterBraintreePayPalHandlerPrefs";
-    private static final String PENDING_KEY = "paypal_pending";
-    private static final String PENDING_REQUEST_KEY = "paypal_pending_request_string";
-    private final SharedPreferences sharedPreferences;
+    private final FlutterBraintreePayPalPendingStore pendingStore;
+    private final String launchId;
+
+    static final long AUTH_REQUEST_DEADLINE_MS = 15000;
+    static final long STEP_DEADLINE_MS = 1000;
+    static final long BROWSER_DEADLINE_MS = 3000;
     private PayPalClient payPalClient;
 
-    public FlutterBraintreePayPalHandler(FlutterBraintreeCustom activity) {
-        Log.d("FlutterBraintreePayPalHandler", "constructed");
-        this.activity = activity;
+    public FlutterBraintreePayPalHandler(FlutterBraintreeFlowScope scope) {
+        FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "constructed");
+        this.scope = scope;
+        this.context = scope.getHost().getApplicationContext();
+        this.authorization = scope.getHost().getIntent().getStringExtra("authorization");
         this.payPalLauncher = new PayPalLauncher();
-        this.sharedPreferences = activity.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.pendingStore = FlutterBraintreePayPalPendingStore.getInstance(context);
+        this.launchId = scope.getHost().getIntent().getStringExtra("launchId");
+        scope.onClose(() -> payPalClient = null);
     }
 
     public PayPalClient initializePayPalClient (Intent intent) {
 
-        Log.d("FlutterBraintreePayPalHandler", "initializePayPalClient");
-        Log.d("FlutterBraintreePayPalHandler", "Extracting authorization and returnUrl from intent");
+        FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "initializePayPalClient");
+        FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "Extracting authorization and returnUrl from intent");
 
         String authorization = intent.getStringExtra("authorization");
         String returnUrl =  intent.getStringExtra("returnUrl");
 
-        Log.d("FlutterBraintreePayPalHandler", "Initializing PayPalClient with authorization: " + authorization + " and returnUrl: " + returnUrl);    
-        return new PayPalClient(
-            activity,
-            authorization,
-            Uri.parse(returnUrl)
-        );
+        FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "Initializing PayPalClient");
+        return FlutterBraintreeClientRegistry.getInstance(context).getPayPalClient(authorization, returnUrl);
 
     }
 
     public void handleReturnToApp(Intent intent) {
-        Log.d("FlutterBraintreePayPalHandler", "handleReturnToApp");
+        FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "handleReturnToApp");
 
-        if (!hasPendingRequest()) {
-            Log.d("FlutterBraintreePayPalHandler", "No pending request");
-            // activity.onCancel();
+        String pendingRequestString = pendingStore.get(launchId);
+        if (pendingRequestString == null) {
+            FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "No pending request");
+            // scope.deliver(FlutterBraintreeHost::onCancel);
             return;
         }
 
-        PayPalPendingRequest.Started pendingRequest = getPendingRequestFromPersistentStore();
+        PayPalPendingRequest.Started pendingRequest = new PayPalPendingRequest.Started(pendingRequestString);
         clearPendingRequest();
-        if (pendingRequest == null) {
-            Log.e("FlutterBraintreePayPalHandler", "Could not restore pending request");
-            activity.onError(new Exception("Could not restore pending request"));
-            return;
-        }
-        Log.d("FlutterBraintreePayPalHandler", "Pending request restored" + pendingRequest.getPendingRequestString());
+        FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "Pending request restored");
 
+        FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.RETURNED_TO_APP);
         PayPalPaymentAuthResult result = payPalLauncher.handleReturnToApp(pendingRequest, intent);
         
         if (result instanceof PayPalPaymentAuthResult.Success) {
-            Log.d("FlutterBraintreePayPalHandler", "PayPal flow completed successfully");
+            FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "PayPal flow completed successfully");
             completePayPalFlow((PayPalPaymentAuthResult.Success) result);
         } else if (result instanceof PayPalPaymentAuthResult.NoResult) {
-            Log.d("FlutterBraintreePayPalHandler", "User returned without completing PayPal flow");
-            activity.onCancel();
+            FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "User returned without completing PayPal flow");
+            scope.deliver(FlutterBraintreeHost::onCancel);
         } else if (result instanceof PayPalPaymentAuthResult.Failure) {
-            Log.e("FlutterBraintreePayPalHandler", "PayPal flow failed",
+            FlutterBraintreeLog.e("FlutterBraintreePayPalHandler", "PayPal flow failed",
                 ((PayPalPaymentAuthResult.Failure) result).getError());
-            activity.onError(((PayPalPaymentAuthResult.Failure) result).getError());
+            scope.deliver(host -> host.onError(((PayPalPaymentAuthResult.Failure) result).getError()));
         } else {
-            Log.e("FlutterBraintreePayPalHandler", "Unexpected PayPal flow result");
-            activity.onError(new Exception("Unexpected PayPal flow result"));
+            FlutterBraintreeLog.e("FlutterBraintreePayPalHandler", "Unexpected PayPal flow result");
+            scope.deliver(host -> host.onError(new Exception("Unexpected PayPal flow result")));
         }
         
     }
 
     public void requestPaypalNonce(Intent intent) {
-        Log.d("FlutterBraintreePayPalHandler", "requestPaypalNonce");
+        FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "requestPaypalNonce");
 
         if (intent == null) {
-            activity.onError(new Exception("Intent cannot be null"));
+            scope.deliver(host -> host.onError(new Exception("Intent cannot be null")));
             return;
         }
 
-        this.payPalClient = initializePayPalClient(intent);
-        PayPalRequest request = createPayPalRequest(intent);
-
-        payPalClient.createPaymentAuthRequest(activity, request, paymentAuthRequest -> {
-            if (paymentAuthRequest instanceof PayPalPaymentAuthRequest.ReadyToLaunch) {
-                Log.d("FlutterBraintreePayPalHandler", "Ready to launch PayPal flow");
+        // Client lookup and request building are independent and join before the auth request
+        FlutterBraintreeFlowGraph flowGraph = new FlutterBraintreeFlowGraph("requestPaypalNonce");
+        scope.onClose(flowGraph::cancel);
+        if (intent.getBooleanExtra("prewarmBrowser", false)) {
+            // Starts the browser while the auth request is created, bound until the flow ends
+            FlutterBraintreeBrowserWarmer warmer = new FlutterBraintreeBrowserWarmer(context);
+            scope.onClose(warmer::unbind);
+            flowGraph.add("browser", BROWSER_DEADLINE_MS, false, (graph, callback) ->
+                warmer.bind(callback::onSuccess));
+        }
+        flowGraph
+            .add("client", STEP_DEADLINE_MS, true, (graph, callback) -> {
+                this.payPalClient = initializePayPalClient(intent);
+                FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.CLIENT_CONSTRUCTED);
+                callback.onSuccess(payPalClient);
+            })
+            .add("request", STEP_DEADLINE_MS, true, (graph, callback) ->
+                callback.onSuccess(createPayPalRequest(intent)))
+            .add("authRequest", AUTH_REQUEST_DEADLINE_MS, true, (graph, callback) ->
+                payPalClient.createPaymentAuthRequest(context, (PayPalRequest) graph.get("request"), paymentAuthRequest -> {
+                    FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.AUTH_REQUEST_CREATED);
+                    if (paymentAuthRequest instanceof PayPalPaymentAuthRequest.ReadyToLaunch) {
+                        callback.onSuccess(paymentAuthRequest);
+                    } else if (paymentAuthRequest instanceof PayPalPaymentAuthRequest.Failure) {
+                        Exception error = ((PayPalPaymentAuthRequest.Failure) paymentAuthRequest).getError();
+                        FlutterBraintreeClientRegistry.getInstance(context)
+                            .onFailure(intent.getStringExtra("authorization"), error);
+                        callback.onFailure(error);
+                    } else {
+                        FlutterBraintreeLog.e("FlutterBraintreePayPalHandler", "Unexpected payment auth request result");
+                        callback.onFailure(new Exception("Unexpected payment auth request result"));
+                    }
+                }), "client", "request")
+            .add("launch", STEP_DEADLINE_MS, true, (graph, callback) -> {
+                FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "Ready to launch PayPal flow");
+                FlutterBraintreeHost host = scope.getHost();
+                if (host == null || host.getActivity() == null) {
+                    callback.onFailure(new Exception("No activity to launch PayPal from"));
+                    return;
+                }
                 PayPalPendingRequest result = payPalLauncher.launch(
-                    activity,
-                    (PayPalPaymentAuthRequest.ReadyToLaunch) paymentAuthRequest
+                    host.getActivity(),
+                    (PayPalPaymentAuthRequest.ReadyToLaunch) graph.get("authRequest")
                 );
-                
+
                 if (result instanceof PayPalPendingRequest.Started) {
-                    Log.d("FlutterBraintreePayPalHandler", "PayPal flow started");
+                    // Persisted first, the process may die at any point after the browser opens
                     storePendingRequest((PayPalPendingRequest.Started) result);
+                    FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "PayPal flow started");
+                    FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.UI_LAUNCHED);
+                    callback.onSuccess(null);
                 } else if (result instanceof PayPalPendingRequest.Failure) {
-                    Log.e("FlutterBraintreePayPalHandler", "PayPal flow failed",
-                        ((PayPalPendingRequest.Failure) result).getError());
-                    activity.onError(((PayPalPendingRequest.Failure) result).getError());
+                    callback.onFailure(((PayPalPendingRequest.Failure) result).getError());
                 } else {
-                    Log.e("FlutterBraintreePayPalHandler", "Unexpected pending request result");
-                    activity.onError(new Exception("Unexpected pending request result"));
+                    FlutterBraintreeLog.e("FlutterBraintreePayPalHandler", "Unexpected pending request result");
+                    callback.onFailure(new Exception("Unexpected pending request result"));
                 }
-            } else if (paymentAuthRequest instanceof PayPalPaymentAuthRequest.Failure) {
-                Log.e("FlutterBraintreePayPalHandler", "PayPal flow failed",
-                    ((PayPalPaymentAuthRequest.Failure) paymentAuthRequest).getError());
-                activity.onError(((PayPalPaymentAuthRequest.Failure) paymentAuthRequest).getError());
-            } else {
-                Log.e("FlutterBraintreePayPalHandler", "Unexpected payment auth request result");
-                activity.onError(new Exception("Unexpected payment auth request result"));
-            }
-        });
+            }, "authRequest")
+            .start(new FlutterBraintreeFlowGraph.Listener() {
+                @Override
+                public void onComplete(FlutterBraintreeFlowGraph graph) {
+                    FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "requestPaypalNonce pre-flight complete");
+                }
+
+                @Override
+                public void onFailure(Exception error) {
+                    FlutterBraintreeLog.e("FlutterBraintreePayPalHandler", "PayPal flow failed", error);
+                    scope.deliver(host -> host.onError(error));
+                }
+            });
     }
 
     private PayPalRequest createPayPalRequest(Intent intent) {
         String amount = intent.getStringExtra("amount");
-        Log.d("FlutterBraintreePayPalHandler", "amount: " + amount);
 
         if (amount == null) {
             return createVaultRequest(intent);
@@ -147,33 +183,27 @@ public class FlutterBraintreePayPalHandler {
     }
 
     private PayPalVaultRequest createVaultRequest(Intent intent) {
-        Log.d("FlutterBraintreePayPalHandler", "Creating Vault flow request");
+        FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "Creating Vault flow request");
         
         String displayName = intent.getStringExtra("displayName");
         String billingAgreementDescription = intent.getStringExtra("billingAgreementDescription");
         
-        Log.d("FlutterBraintreePayPalHandler", "displayName: " + displayName);
-        Log.d("FlutterBraintreePayPalHandler", "billingAgreementDescription: " + billingAgreementDescription);
 
         PayPalVaultRequest request = new PayPalVaultRequest(false);
         request.setDisplayName(displayName);
         request.setBillingAgreementDescription(billingAgreementDescription);
 
-        Log.d("FlutterBraintreePayPalHandler", "Created Vault flow request = " + request);
         return request;
     }
 
     private PayPalCheckoutRequest createCheckoutRequest(Intent intent) {
-        Log.d("FlutterBraintreePayPalHandler", "Creating Checkout flow request");
+        FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "Creating Checkout flow request");
         
         String amount = intent.getStringExtra("amount");
         String currencyCode = intent.getStringExtra("currencyCode");
         String displayName = intent.getStringExtra("displayName");
         String billingAgreementDescription = intent.getStringExtra("billingAgreementDescription");
 
-        Log.d("FlutterBraintreePayPalHandler", "displayName: " + displayName);
-        Log.d("FlutterBraintreePayPalHandler", "billingAgreementDescription: " + billingAgreementDescription);
-        Log.d("FlutterBraintreePayPalHandler", "currencyCode: " + currencyCode);
 
         PayPalCheckoutRequest request = new PayPalCheckoutRequest(amount, false);
 
@@ -182,16 +212,15 @@ public class FlutterBraintreePayPalHandler {
         request.setDisplayName(displayName);
         request.setBillingAgreementDescription(billingAgreementDescription);
         
-        Log.d("FlutterBraintreePayPalHandler", "Created Checkout flow request = " + request);
         return request;
     }
 
 
     private PayPalPaymentIntent getPaymentIntent(Intent intent) {
-        Log.d("FlutterBraintreePayPalHandler", "getPaymentIntent");
+        FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "getPaymentIntent");
 
         String paymentIntent = intent.getStringExtra("payPalPaymentIntent");
-        Log.d("FlutterBraintreePayPalHandler", "paymentIntent: " + paymentIntent);
+        FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "paymentIntent:", paymentIntent);
         switch (paymentIntent) {
             case "order":
                 return PayPalPaymentIntent.ORDER;
@@ -203,59 +232,41 @@ public class FlutterBraintreePayPalHandler {
     }
 
     private void completePayPalFlow(PayPalPaymentAuthResult.Success paymentAuthResult) {
-        Log.d("FlutterBraintreePayPalHandler", "completePayPalFlow");
+        FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "completePayPalFlow");
 
+        FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.TOKENIZING);
         payPalClient.tokenize(paymentAuthResult, result -> {
+            FlutterBraintreeTracer.mark(scope.getRequestId(), FlutterBraintreeTracer.TOKENIZE_COMPLETE);
             if (result instanceof PayPalResult.Success) {
-                Log.d("FlutterBraintreePayPalHandler", "PayPal flow completed successfully");
+                FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "PayPal flow completed successfully");
                 PayPalResult.Success success = (PayPalResult.Success) result;
-                activity.onPaymentMethodNonceCreated(success.getNonce(), activity.createEmptyBillingAddress());
+                scope.deliver(host -> host.onPaymentMethodNonceCreated(success.getNonce()));
             } else if (result instanceof PayPalResult.Failure) {
-                Log.e("FlutterBraintreePayPalHandler", "PayPal flow failed", 
+                FlutterBraintreeLog.e("FlutterBraintreePayPalHandler", "PayPal flow failed",
                     ((PayPalResult.Failure) result).getError());
                 PayPalResult.Failure failure = (PayPalResult.Failure) result;
-                activity.onError(failure.getError());
+                FlutterBraintreeClientRegistry.getInstance(context)
+                    .onFailure(authorization, failure.getError());
+                scope.deliver(host -> host.onError(failure.getError()));
             } else if (result instanceof PayPalResult.Cancel) {
-                Log.d("FlutterBraintreePayPalHandler", "User cancelled PayPal flow");
-                activity.onCancel();
+                FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "User cancelled PayPal flow");
+                scope.deliver(FlutterBraintreeHost::onCancel);
             } else {
-                Log.e("FlutterBraintreePayPalHandler", "Unexpected PayPal flow result");
-                activity.onError(new Exception("Unexpected PayPal flow result"));
+                FlutterBraintreeLog.e("FlutterBraintreePayPalHandler", "Unexpected PayPal flow result");
+                scope.deliver(host -> host.onError(new Exception("Unexpected PayPal flow result")));
             }
             clearPendingRequest();
         });
     }
 
     private void storePendingRequest(PayPalPendingRequest.Started request) {
-        Log.d("FlutterBraintreePayPalHandler", "storePendingRequest");
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putString(PENDING_REQUEST_KEY, request.getPendingRequestString());
-        editor.putBoolean(PENDING_KEY, true);
-        editor.apply();
-        Log.d("FlutterBraintreePayPalHandler", "storePendingRequest success");
-    }
-
-    private PayPalPendingRequest.Started getPendingRequestFromPersistentStore() {
-        Log.d("FlutterBraintreePayPalHandler", "getPendingRequestFromPersistentStore");
-        String pendingRequestString = sharedPreferences.getString(PENDING_REQUEST_KEY, null);
-        if (pendingRequestString != null) {
-            return new PayPalPendingRequest.Started(pendingRequestString);
-        }
-        Log.e("FlutterBraintreePayPalHandler", "No pending request found in persistent store");
-        return null;
-    }
-
-    private boolean hasPendingRequest() {
-        Log.d("FlutterBraintreePayPalHandler", "hasPendingRequest");
-        return sharedPreferences.getBoolean(PENDING_KEY, false);
+        FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "storePendingRequest");
+        pendingStore.put(launchId, request.getPendingRequestString());
     }
 
     private void clearPendingRequest() {
-        Log.d("FlutterBraintreePayPalHandler", "clearPendingRequest");
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.remove(PENDING_REQUEST_KEY);
-        editor.remove(PENDING_KEY);
-        editor.apply();
+        FlutterBraintreeLog.d("FlutterBraintreePayPalHandler", "clearPendingRequest");
+        pendingStore.remove(launchId);
     }
 
-}
\ No newline at end of file
+}
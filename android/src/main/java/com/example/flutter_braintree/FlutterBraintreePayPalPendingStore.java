@@ -0,0 +1,131 @@
+package com.example.flutter_braintree;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pending PayPal browser-switch requests, keyed by the launch id of their operation.
+ *
+ * Launch ids are random, unlike request ids, which restart in every process and engine,
+ * so a request left behind by a process death or an abandoned browser can never be taken
+ * for a later flow. Memory is the source of truth while the process lives and is what
+ * {@code onResume} reads; disk is only read once, the first time the store is used, to
+ * recover requests that outlived a process death. Entries older than {@link #MAX_AGE_MS}
+ * are purged on that read, which the plugin triggers with {@link #preload} on its
+ * background thread.
+ *
+ * The browser launch is the point after which the process may be killed, so the entry
+ * is written with {@code commit()} as soon as {@code PayPalLauncher.launch} returns it,
+ * on the store's own background thread so the main thread never waits for the disk.
+ * Removals go through the same thread, so they can never be overtaken by the write of
+ * the entry they remove.
+ */
+public final class FlutterBraintreePayPalPendingStore {
+
+    static final String PREFS_NAME = "FlutterBraintreePayPalHandlerPrefs";
+    static final String KEY_PREFIX = "pending_launch_";
+    static final long MAX_AGE_MS = TimeUnit.HOURS.toMillis(3);
+
+    // Keys written by earlier versions of the plugin, by request id or in a single slot
+    private static final String LEGACY_REQUEST_KEY_PREFIX = "pending_request_";
+    private static final String LEGACY_PENDING_KEY = "paypal_pending";
+    private static final String LEGACY_PENDING_REQUEST_KEY = "paypal_pending_request_string";
+
+    private static FlutterBraintreePayPalPendingStore instance;
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final Context applicationContext;
+    private final HashMap<String, String> pendingRequests = new HashMap<>();
+    private SharedPreferences sharedPreferences;
+    private boolean loaded = false;
+
+    private FlutterBraintreePayPalPendingStore(Context context) {
+        this.applicationContext = context.getApplicationContext();
+    }
+
+    public static synchronized FlutterBraintreePayPalPendingStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new FlutterBraintreePayPalPendingStore(context);
+        }
+        return instance;
+    }
+
+    /** Reads the stored requests now, so the first flow does not do it on the main thread. */
+    public synchronized void preload() {
+        ensureLoaded();
+    }
+
+    /** Records a launched request in memory and commits it to disk on the store's background thread. */
+    public synchronized void put(String launchId, String pendingRequestString) {
+        if (launchId == null) return;
+        ensureLoaded();
+        pendingRequests.put(launchId, pendingRequestString);
+        String value = System.currentTimeMillis() + ":" + pendingRequestString;
+        executor.execute(() -> {
+            if (!sharedPreferences.edit().putString(KEY_PREFIX + launchId, value).commit()) {
+                FlutterBraintreeLog.w("FlutterBraintreePayPalPendingStore", "commit of a pending request failed");
+            }
+        });
+    }
+
+    /** Returns the pending request string for the launch id, or null if none is pending. */
+    public synchronized String get(String launchId) {
+        if (launchId == null) return null;
+        ensureLoaded();
+        return pendingRequests.get(launchId);
+    }
+
+    public synchronized void remove(String launchId) {
+        if (launchId == null) return;
+        ensureLoaded();
+        if (pendingRequests.remove(launchId) != null) {
+            executor.execute(() -> sharedPreferences.edit().remove(KEY_PREFIX + launchId).commit());
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        sharedPreferences = applicationContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long oldest = System.currentTimeMillis() - MAX_AGE_MS;
+        SharedPreferences.Editor purge = sharedPreferences.edit();
+        boolean purged = false;
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()) {
+            String key = entry.getKey();
+            if (key.startsWith(LEGACY_REQUEST_KEY_PREFIX)) {
+                purge.remove(key);
+                purged = true;
+                continue;
+            }
+            if (!key.startsWith(KEY_PREFIX)) continue;
+            String value = entry.getValue() instanceof String ? (String) entry.getValue() : "";
+            int separator = value.indexOf(':');
+            long launchedAt;
+            try {
+                launchedAt = separator > 0 ? Long.parseLong(value.substring(0, separator)) : 0;
+            } catch (NumberFormatException e) {
+                launchedAt = 0;
+            }
+            if (launchedAt < oldest) {
+                purge.remove(key);
+                purged = true;
+                continue;
+            }
+            pendingRequests.put(key.substring(KEY_PREFIX.length()), value.substring(separator + 1));
+        }
+        if (sharedPreferences.contains(LEGACY_PENDING_KEY) || sharedPreferences.contains(LEGACY_PENDING_REQUEST_KEY)) {
+            purge.remove(LEGACY_PENDING_KEY).remove(LEGACY_PENDING_REQUEST_KEY);
+            purged = true;
+        }
+        if (purged) {
+            purge.apply();
+        }
+        FlutterBraintreeLog.d("FlutterBraintreePayPalPendingStore", "loaded pending requests:", pendingRequests.size());
+    }
+}
@@ -3,14 +3,25 @@ package com.example.flutter_braintree;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.StrictMode;
 
-import java.util.Map;
+import java.util.ArrayList;
 import java.util.HashMap;
-import android.util.Log;
+import java.util.List;
+import java.util.Map;
+
+import androidx.activity.ComponentActivity;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
@@ -18,12 +29,38 @@ import io.flutter.plugin.common.MethodChannel.Result;
 // import io.flutter.plugin.common.PluginRegistry.Registrar;
 import io.flutter.plugin.common.PluginRegistry.ActivityResultListener;
 
+/**
+ * Method calls arrive on a background task queue, so unpacking arguments, building
+ * intents, client construction and device data setup never compete with frame rendering.
+ * Only starting {@link FlutterBraintreeCustom} hops to the main thread.
+ *
+ * In the {@code host} launch mode 3D Secure and Google Pay run directly on the Flutter
+ * activity through {@link FlutterBraintreeHostFlow}; PayPal always uses the trampoline,
+ * since its browser switch returns through the deep link declared on it. Host mode needs
+ * the {@link #HOST_LAUNCH_MODE_META_DATA} opt-in in the app manifest, because its
+ * launchers are registered on the activity as the plugin attaches; without it the plugin
+ * adds nothing to the activity's result registry.
+ */
 public class FlutterBraintreePlugin implements FlutterPlugin, ActivityAware, MethodCallHandler, ActivityResultListener {
     private static final int CUSTOM_ACTIVITY_REQUEST_CODE = 0x420;
+    static final String HOST_LAUNCH_MODE_META_DATA = "com.example.flutter_braintree.HOST_LAUNCH_MODE";
 
-    private Activity activity;
-    private Result activeResult;
-    private String currentMethod = "";
+    private Context applicationContext;
+    private volatile Activity activity;
+    private ActivityPluginBinding activityBinding;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final FlutterBraintreeOperationTracker operations = new FlutterBraintreeOperationTracker(this::onOperationExpired);
+    private final FlutterBraintreeEventStream batchEvents =
+        new FlutterBraintreeEventStream(FlutterBraintreeHeadlessHandler.BATCH_EVENT_BUFFER);
+    private final FlutterBraintreeEventStream progressEvents = new FlutterBraintreeEventStream();
+    private final FlutterBraintreeLaunchers hostLaunchers = new FlutterBraintreeLaunchers();
+    private volatile boolean launchInHost = false;
+    private boolean hostLaunchModeEnabled = false;
+    // Main thread only
+    private FlutterBraintreeHostFlow hostFlow;
+    // Main thread only: the request id of the started trampoline, and how many torn-down ones have yet to report back
+    private int launchedRequestId = -1;
+    private int tornDownLaunches = 0;
 
     // public static void registerWith(Registrar registrar) {
     //     Log.d("FlutterBraintreePlugin", "registerWith called");
@@ -36,70 +73,251 @@ public class FlutterBraintreePlugin implements FlutterPlugin, ActivityAware, Met
 
     @Override
     public void onAttachedToEngine(FlutterPluginBinding binding) {
-        Log.d("FlutterBraintreePlugin", "onAttachedToEngine called");
-        final MethodChannel channel = new MethodChannel(binding.getBinaryMessenger(), "flutter_braintree.custom");
+        FlutterBraintreeLog.d("FlutterBraintreePlugin", "onAttachedToEngine called");
+        applicationContext = binding.getApplicationContext();
+        hostLaunchModeEnabled = readHostLaunchModeOptIn(applicationContext);
+        launchInHost = hostLaunchModeEnabled;
+        FlutterBraintreeGooglePayReadinessCache.getInstance(applicationContext).startWatchingPackages();
+        BinaryMessenger.TaskQueue taskQueue = binding.getBinaryMessenger().makeBackgroundTaskQueue();
+        final MethodChannel channel = new MethodChannel(
+            binding.getBinaryMessenger(), "flutter_braintree.custom",
+            FlutterBraintreeMessageCodec.METHOD_CODEC, taskQueue);
         channel.setMethodCallHandler(this);
+        final EventChannel batchChannel = new EventChannel(binding.getBinaryMessenger(), "flutter_braintree.custom/batch");
+        batchChannel.setStreamHandler(batchEvents);
+        final EventChannel progressChannel = new EventChannel(binding.getBinaryMessenger(), "flutter_braintree.custom/progress");
+        progressChannel.setStreamHandler(progressEvents);
+        FlutterBraintreeTracer.setProgressEvents(progressEvents);
+        FlutterBraintreeTracer.setStageListener(operations);
     }
 
     @Override
     public void onDetachedFromEngine(FlutterPluginBinding binding) {
-        Log.d("FlutterBraintreePlugin", "onDetachedFromEngine called");
+        FlutterBraintreeLog.d("FlutterBraintreePlugin", "onDetachedFromEngine called");
+        FlutterBraintreeGooglePayReadinessCache.getInstance(applicationContext).stopWatchingPackages();
+        FlutterBraintreeTracer.setProgressEvents(null);
+        FlutterBraintreeTracer.setStageListener(null);
     }
 
     @Override
     public void onAttachedToActivity(ActivityPluginBinding binding) {
-        Log.d("FlutterBraintreePlugin", "onAttachedToActivity called");
-        activity = binding.getActivity();
-        binding.addActivityResultListener(this);
+        FlutterBraintreeLog.d("FlutterBraintreePlugin", "onAttachedToActivity called");
+        attachActivity(binding);
     }
 
     @Override
     public void onDetachedFromActivityForConfigChanges() {
-        Log.d("FlutterBraintreePlugin", "onDetachedFromActivityForConfigChanges called");
-        activity = null;
+        FlutterBraintreeLog.d("FlutterBraintreePlugin", "onDetachedFromActivityForConfigChanges called");
+        detachActivity();
     }
 
     @Override
     public void onReattachedToActivityForConfigChanges(ActivityPluginBinding binding) {
-        Log.d("FlutterBraintreePlugin", "onReattachedToActivityForConfigChanges called");
-        activity = binding.getActivity();
-        binding.addActivityResultListener(this);
+        FlutterBraintreeLog.d("FlutterBraintreePlugin", "onReattachedToActivityForConfigChanges called");
+        attachActivity(binding);
     }
 
     @Override
     public void onDetachedFromActivity() {
-        Log.d("FlutterBraintreePlugin", "onDetachedFromActivity called");
+        FlutterBraintreeLog.d("FlutterBraintreePlugin", "onDetachedFromActivity called");
+        detachActivity();
+        if (hostFlow != null) {
+            hostFlow.close();
+            hostFlow = null;
+        }
+        // The host is gone for good, its activity result will never arrive
+        FlutterBraintreeOperation uiOperation = operations.getUiOperation();
+        if (uiOperation != null) {
+            uiOperation.error("error", "Activity detached in method: " + uiOperation.getMethod(), null);
+        }
+    }
+
+    private void attachActivity(ActivityPluginBinding binding) {
+        activityBinding = binding;
+        activity = binding.getActivity();
+        binding.addActivityResultListener(this);
+        if (hostLaunchModeEnabled && activity instanceof ComponentActivity) {
+            try {
+                hostLaunchers.register((ComponentActivity) activity);
+            } catch (IllegalStateException e) {
+                // Attached after the activity started, so flows fall back to the trampoline
+                FlutterBraintreeLog.w("FlutterBraintreePlugin", "Cannot register launchers on the host:", e.getMessage());
+            }
+            if (hostFlow != null) {
+                hostFlow.setActivity((ComponentActivity) activity);
+            }
+        }
+    }
+
+    /** Drops every reference to the outgoing activity, including the one its binding holds to us. */
+    private void detachActivity() {
+        if (activityBinding != null) {
+            activityBinding.removeActivityResultListener(this);
+            activityBinding = null;
+        }
         activity = null;
+        hostLaunchers.unregister();
+        if (hostFlow != null) {
+            hostFlow.setActivity(null);
+        }
     }
 
     @Override
     public void onMethodCall(MethodCall call, Result result) {
-        Log.d("FlutterBraintreePlugin", "onMethodCall called with method: " + call.method);
-        if (activeResult != null) {
+        FlutterBraintreeLog.d("FlutterBraintreePlugin", "onMethodCall called with method:", call.method);
+        if (call.arguments instanceof FlutterBraintreeMessageCodec.DecodeError) {
+            String message = ((FlutterBraintreeMessageCodec.DecodeError) call.arguments).message;
+            result.error("error", message + " in method: " + call.method, null);
+            return;
+        }
+        if (call.method.equals("invalidateClients")) {
+            String authorization = call.argument("authorization");
+            FlutterBraintreeClientRegistry clientRegistry = FlutterBraintreeClientRegistry.getInstance(applicationContext);
+            FlutterBraintreeDeviceDataCache deviceDataCache = FlutterBraintreeDeviceDataCache.getInstance(applicationContext);
+            if (authorization == null) {
+                clientRegistry.invalidateAll();
+                deviceDataCache.invalidateAll();
+            } else {
+                clientRegistry.invalidate(authorization);
+                deviceDataCache.invalidate(authorization);
+            }
+            result.success(null);
+            return;
+        }
+        if (call.method.equals("getFlowTraces")) {
+            result.success(FlutterBraintreeTracer.drainFinished());
+            return;
+        }
+        if (call.method.equals("cancel")) {
+            Integer requestId = call.argument("requestId");
+            List<FlutterBraintreeOperation> canceled = new ArrayList<>();
+            if (requestId == null) {
+                canceled.addAll(operations.getAll());
+            } else if (operations.get(requestId) != null) {
+                canceled.add(operations.get(requestId));
+            }
+            mainHandler.post(() -> {
+                for (FlutterBraintreeOperation operation : canceled) {
+                    operation.success(null);
+                    tearDown(operation, false);
+                }
+            });
+            result.success(canceled.size());
+            return;
+        }
+        if (call.method.equals("setStageTimeouts")) {
+            Map<String, Number> timeouts = call.argument("timeouts");
+            if (timeouts != null) {
+                for (Map.Entry<String, Number> timeout : timeouts.entrySet()) {
+                    operations.setStageTimeout(timeout.getKey(), timeout.getValue().longValue());
+                }
+            }
+            result.success(null);
+            return;
+        }
+        if (call.method.equals("setLogLevel")) {
+            Integer level = call.argument("level");
+            Boolean logcat = call.argument("logcat");
+            FlutterBraintreeLog.setLevel(level == null ? FlutterBraintreeLog.WARN : level);
+            FlutterBraintreeLog.setLogcatEnabled(logcat != null && logcat);
+            result.success(null);
+            return;
+        }
+        if (call.method.equals("setLaunchMode")) {
+            boolean host = "host".equals(call.argument("mode"));
+            if (host && !hostLaunchers.isRegistered()) {
+                // Launchers can only be registered while the activity is created, so it is too late now
+                result.error("error", "Host launch mode needs the " + HOST_LAUNCH_MODE_META_DATA
+                    + " meta-data and a FlutterFragmentActivity in method: setLaunchMode", null);
+                return;
+            }
+            launchInHost = host;
+            result.success(null);
+            return;
+        }
+        if (call.method.equals("enableStrictMode")) {
+            mainHandler.post(this::enableStrictMode);
+            result.success(null);
+            return;
+        }
+        if (call.method.equals("dumpLogs")) {
+            result.success(FlutterBraintreeLog.dump());
+            return;
+        }
+        if (call.method.equals("prefetchDeviceData")) {
+            FlutterBraintreeDeviceDataCache.getInstance(applicationContext).prefetch(call.argument("authorization"));
+            result.success(null);
+            return;
+        }
+        if (call.method.equals("validateCard")) {
+            FlutterBraintreeCardRequest card = cardRequest(call, result);
+            if (card == null) return;
+            result.success(FlutterBraintreeCardValidator.validate(card, FlutterBraintreeBinIndex.getInstance(applicationContext)));
+            return;
+        }
+        if (call.method.equals("detectCardBrand")) {
+            result.success(FlutterBraintreeBinIndex.getInstance(applicationContext).lookup(call.argument("cardNumber")));
+            return;
+        }
+        FlutterBraintreeCardRequest card = null;
+        List<FlutterBraintreeCardRequest> cards = null;
+        if (call.method.equals("tokenizeCreditCards")) {
+            cards = cardRequests(call, result);
+            if (cards == null) return;
+        }
+        if (call.method.equals("tokenizeCreditCard") || call.method.equals("tokenizeAndVerifyCard")) {
+            card = cardRequest(call, result);
+            if (card == null) return;
+            // A card that cannot be valid fails here, before any client, activity or gateway work
+            HashMap<String, String> cardErrors = FlutterBraintreeCardValidator.blockingErrors(
+                card, FlutterBraintreeBinIndex.getInstance(applicationContext));
+            if (!cardErrors.isEmpty()) {
+                result.error("invalid_card", "Invalid card in method: " + call.method, cardErrors);
+                return;
+            }
+        }
+        // A double tap or rebuild that repeats an in-flight call shares its reply
+        String key = FlutterBraintreeRequestKey.of(call.method, call.arguments);
+        if (operations.join(key, result)) {
+            FlutterBraintreeLog.d("FlutterBraintreePlugin", "joined in-flight call:", call.method);
+            return;
+        }
+        FlutterBraintreeOperation operation =
+            operations.begin(call.method, key, call.argument("authorization"), launchesUi(call.method), result);
+        if (operation == null) {
             result.error("already_running", "Cannot launch another custom activity while one is already running.", null);
             return;
         }
-        activeResult = result;
-        currentMethod = call.method; 
+        operation.markRunning();
+
+        // Start device data collection now so it overlaps with the flow instead of following it
+        FlutterBraintreeDeviceDataCache.getInstance(applicationContext).prefetch(call.argument("authorization"));
+        int fields = FlutterBraintreeNonceResult.parseFields((List<String>) call.argument("fields"));
 
         switch (call.method) {
             case "tokenizeCreditCard":
-                Intent tokenizeCreditCardIntent = new Intent(activity, FlutterBraintreeCustom.class);
-                tokenizeCreditCardIntent.putExtra("type", "tokenizeCreditCard");
-                tokenizeCreditCardIntent.putExtra("authorization", (String) call.argument("authorization"));
-                assert (call.argument("request") instanceof Map);
-                Map tokenizeCreditCardRequest = (Map) call.argument("request");
-                tokenizeCreditCardIntent.putExtra("cardNumber", (String) tokenizeCreditCardRequest.get("cardNumber"));
-                tokenizeCreditCardIntent.putExtra("expirationMonth", (String) tokenizeCreditCardRequest.get("expirationMonth"));
-                tokenizeCreditCardIntent.putExtra("expirationYear", (String) tokenizeCreditCardRequest.get("expirationYear"));
-                tokenizeCreditCardIntent.putExtra("cvv", (String) tokenizeCreditCardRequest.get("cvv"));
-                tokenizeCreditCardIntent.putExtra("cardholderName", (String) tokenizeCreditCardRequest.get("cardholderName"));
-                activity.startActivityForResult(tokenizeCreditCardIntent, CUSTOM_ACTIVITY_REQUEST_CODE);
+                new FlutterBraintreeHeadlessHandler(applicationContext).tokenizeCreditCard(
+                    operation.getRequestId(), (String) call.argument("authorization"), card, fields, operation);
+                break;
+            case "tokenizeCreditCards":
+                Integer maxConcurrency = call.argument("maxConcurrency");
+                new FlutterBraintreeHeadlessHandler(applicationContext).tokenizeCreditCards(
+                    operation.getRequestId(),
+                    (String) call.argument("authorization"),
+                    (Integer) call.argument("batchId"),
+                    cards,
+                    maxConcurrency == null ? FlutterBraintreeHeadlessHandler.DEFAULT_BATCH_CONCURRENCY : maxConcurrency,
+                    fields,
+                    batchEvents,
+                    operation);
                 break;
             case "requestPaypalNonce":
-                Intent requestPaypalNonceIntent = new Intent(activity, FlutterBraintreeCustom.class);
+                Intent requestPaypalNonceIntent = new Intent(applicationContext, FlutterBraintreeCustom.class);
                 requestPaypalNonceIntent.putExtra("type", "requestPaypalNonce");
+                requestPaypalNonceIntent.putExtra("requestId", operation.getRequestId());
+                requestPaypalNonceIntent.putExtra("launchId", operation.getLaunchId());
                 requestPaypalNonceIntent.putExtra("authorization", (String) call.argument("authorization"));
+                requestPaypalNonceIntent.putExtra("fields", fields);
                 assert (call.argument("request") instanceof Map);
                 Map requestPaypalNonceRequest = (Map) call.argument("request");
                 requestPaypalNonceIntent.putExtra("amount", (String) requestPaypalNonceRequest.get("amount"));
@@ -109,12 +327,17 @@ public class FlutterBraintreePlugin implements FlutterPlugin, ActivityAware, Met
                 requestPaypalNonceIntent.putExtra("payPalPaymentUserAction", (String) requestPaypalNonceRequest.get("payPalPaymentUserAction"));
                 requestPaypalNonceIntent.putExtra("billingAgreementDescription", (String) requestPaypalNonceRequest.get("billingAgreementDescription"));
                 requestPaypalNonceIntent.putExtra("returnUrl", (String) requestPaypalNonceRequest.get("returnUrl"));
-                activity.startActivityForResult(requestPaypalNonceIntent, CUSTOM_ACTIVITY_REQUEST_CODE);
+                requestPaypalNonceIntent.putExtra("prewarmBrowser", Boolean.TRUE.equals(requestPaypalNonceRequest.get("prewarmBrowser")));
+                // Reads the stored requests here, not on main when the trampoline first looks
+                FlutterBraintreePayPalPendingStore.getInstance(applicationContext).preload();
+                launchCustomActivity(requestPaypalNonceIntent, operation);
                 break;
             case "startThreeDSecureFlow":
-                Intent startThreeDSecureFlowIntent = new Intent(activity, FlutterBraintreeCustom.class);
+                Intent startThreeDSecureFlowIntent = new Intent(applicationContext, FlutterBraintreeCustom.class);
                 startThreeDSecureFlowIntent.putExtra("type", "startThreeDSecureFlow");
+                startThreeDSecureFlowIntent.putExtra("requestId", operation.getRequestId());
                 startThreeDSecureFlowIntent.putExtra("authorization", (String) call.argument("authorization"));
+                startThreeDSecureFlowIntent.putExtra("fields", fields);
                 assert (call.argument("request") instanceof Map);
                 Map startThreeDSecureFlowRequest = (Map) call.argument("request");
                 startThreeDSecureFlowIntent.putExtra("nonce", (String) startThreeDSecureFlowRequest.get("nonce"));
@@ -122,94 +345,270 @@ public class FlutterBraintreePlugin implements FlutterPlugin, ActivityAware, Met
                 startThreeDSecureFlowIntent.putExtra("email", (String) startThreeDSecureFlowRequest.get("email"));
                 startThreeDSecureFlowIntent.putExtra("surname", (String) startThreeDSecureFlowRequest.get("surname"));
                 startThreeDSecureFlowIntent.putExtra("givenName", (String) startThreeDSecureFlowRequest.get("givenName"));
-                Map billingAddress = (Map) startThreeDSecureFlowRequest.get("billingAddress");
-                startThreeDSecureFlowIntent.putExtra("billingAddress", new HashMap<>(billingAddress));
-                activity.startActivityForResult(startThreeDSecureFlowIntent, CUSTOM_ACTIVITY_REQUEST_CODE);
+                startThreeDSecureFlowIntent.putExtra("billingAddress", toBundle((Map) startThreeDSecureFlowRequest.get("billingAddress")));
+                launchFlow(startThreeDSecureFlowIntent, operation);
+                break;
+            case "tokenizeAndVerifyCard":
+                Intent tokenizeAndVerifyCardIntent = new Intent(applicationContext, FlutterBraintreeCustom.class);
+                tokenizeAndVerifyCardIntent.putExtra("type", "tokenizeAndVerifyCard");
+                tokenizeAndVerifyCardIntent.putExtra("requestId", operation.getRequestId());
+                tokenizeAndVerifyCardIntent.putExtra("authorization", (String) call.argument("authorization"));
+                tokenizeAndVerifyCardIntent.putExtra("fields", fields);
+                tokenizeAndVerifyCardIntent.putExtra("cardNumber", card.cardNumber);
+                tokenizeAndVerifyCardIntent.putExtra("expirationMonth", card.expirationMonth);
+                tokenizeAndVerifyCardIntent.putExtra("expirationYear", card.expirationYear);
+                tokenizeAndVerifyCardIntent.putExtra("cvv", card.cvv);
+                tokenizeAndVerifyCardIntent.putExtra("cardholderName", card.cardholderName);
+                assert (call.argument("verification") instanceof Map);
+                Map tokenizeAndVerifyCardVerification = (Map) call.argument("verification");
+                tokenizeAndVerifyCardIntent.putExtra("amount", (String) tokenizeAndVerifyCardVerification.get("amount"));
+                tokenizeAndVerifyCardIntent.putExtra("email", (String) tokenizeAndVerifyCardVerification.get("email"));
+                tokenizeAndVerifyCardIntent.putExtra("billingAddress", toBundle((Map) tokenizeAndVerifyCardVerification.get("billingAddress")));
+                launchFlow(tokenizeAndVerifyCardIntent, operation);
                 break;
             case "startGooglePaymentFlow":
-                Intent startGooglePaymentFlowIntent = new Intent(activity, FlutterBraintreeCustom.class);
+                Intent startGooglePaymentFlowIntent = new Intent(applicationContext, FlutterBraintreeCustom.class);
                 startGooglePaymentFlowIntent.putExtra("type", "startGooglePaymentFlow");
+                startGooglePaymentFlowIntent.putExtra("requestId", operation.getRequestId());
                 startGooglePaymentFlowIntent.putExtra("authorization", (String) call.argument("authorization"));
+                startGooglePaymentFlowIntent.putExtra("fields", fields);
                 assert (call.argument("request") instanceof Map);
                 Map startGooglePaymentFlowRequest = (Map) call.argument("request");
                 startGooglePaymentFlowIntent.putExtra("totalPrice", (String) startGooglePaymentFlowRequest.get("totalPrice"));
-                activity.startActivityForResult(startGooglePaymentFlowIntent, CUSTOM_ACTIVITY_REQUEST_CODE);
+                launchFlow(startGooglePaymentFlowIntent, operation);
+                break;
+            case "warmUp":
+                new FlutterBraintreeWarmer(applicationContext).warmUp(
+                    (String) call.argument("authorization"),
+                    (List<String>) call.argument("flows"),
+                    (String) call.argument("returnUrl"),
+                    operation);
                 break;
             case "checkGooglePayReady":
-                Intent checkGooglePayReadyIntent = new Intent(activity, FlutterBraintreeCustom.class);
-                checkGooglePayReadyIntent.putExtra("type", "checkGooglePayReady");
-                checkGooglePayReadyIntent.putExtra("authorization", (String) call.argument("authorization"));
-                activity.startActivityForResult(checkGooglePayReadyIntent, CUSTOM_ACTIVITY_REQUEST_CODE);
+                new FlutterBraintreeHeadlessHandler(applicationContext).checkGooglePayReady(
+                    (String) call.argument("authorization"), operation);
                 break;
             default:
-                result.notImplemented();
-                activeResult = null;
+                operation.notImplemented();
                 break;
         }
     }
 
-    @Override
-    public boolean onActivityResult(int requestCode, int resultCode, Intent data) {
-        if (currentMethod == null) {
-            currentMethod = "undefined";
+    private void onOperationExpired(FlutterBraintreeOperation operation, String stage) {
+        mainHandler.post(() -> {
+            operation.error("timeout", "Timed out after stage " + stage + " in method: " + operation.getMethod(), null);
+            tearDown(operation, true);
+        });
+    }
+
+    /**
+     * Releases what a canceled or expired flow holds: its host activity, its pending
+     * PayPal request and, after a timeout, the clients and device data for its authorization.
+     */
+    private void tearDown(FlutterBraintreeOperation operation, boolean timedOut) {
+        Activity current = activity;
+        if (operation.launchesUi() && current != null && launchedRequestId == operation.getRequestId()) {
+            current.finishActivity(CUSTOM_ACTIVITY_REQUEST_CODE);
+            // Its result still arrives, possibly without data, and must not reach the next flow
+            launchedRequestId = -1;
+            tornDownLaunches++;
+        }
+        if (hostFlow != null && hostFlow.getRequestId() == operation.getRequestId()) {
+            hostFlow.close();
+            hostFlow = null;
+        }
+        FlutterBraintreePayPalPendingStore.getInstance(applicationContext).remove(operation.getLaunchId());
+        if (timedOut && operation.getAuthorization() != null) {
+            FlutterBraintreeClientRegistry.getInstance(applicationContext).invalidate(operation.getAuthorization());
+            FlutterBraintreeDeviceDataCache.getInstance(applicationContext).invalidate(operation.getAuthorization());
         }
+    }
+
+    private void launchCustomActivity(Intent intent, FlutterBraintreeOperation operation) {
+        mainHandler.post(() -> {
+            Activity current = activity;
+            if (current == null) {
+                operation.error("error", "Activity detached in method: " + operation.getMethod(), null);
+                return;
+            }
+            startCustomActivity(current, intent, operation);
+        });
+    }
 
-        Log.d("FlutterBraintreePlugin", "onActivityResult called with requestCode: " + requestCode + ", resultCode: " + resultCode);
+    private void startCustomActivity(Activity current, Intent intent, FlutterBraintreeOperation operation) {
+        launchedRequestId = operation.getRequestId();
+        current.startActivityForResult(intent, CUSTOM_ACTIVITY_REQUEST_CODE);
+    }
 
-        if (activeResult == null) {
-            Log.w("FlutterBraintreePlugin", "activeResult is null, cannot handle activity result");
+    private static boolean readHostLaunchModeOptIn(Context context) {
+        try {
+            ApplicationInfo info = context.getPackageManager()
+                .getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA);
+            return info.metaData != null && info.metaData.getBoolean(HOST_LAUNCH_MODE_META_DATA, false);
+        } catch (PackageManager.NameNotFoundException e) {
             return false;
         }
+    }
 
-        if (data == null) {
-            Log.w("FlutterBraintreePlugin", "Intent data is null");
-            activeResult.error("error", "Intent data is null in method: " + currentMethod, null);
-            activeResult = null;
-            return true;
+    /**
+     * Logs disk and network access on the main thread to logcat, to check that flows keep
+     * their I/O off it. Added on top of the app's own policy, and only in debuggable apps.
+     */
+    private void enableStrictMode() {
+        if ((applicationContext.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+            FlutterBraintreeLog.w("FlutterBraintreePlugin", "StrictMode is only enabled in debuggable apps");
+            return;
         }
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder(StrictMode.getThreadPolicy())
+            .detectDiskReads()
+            .detectDiskWrites()
+            .detectNetwork()
+            .penaltyLog()
+            .build());
+    }
 
-        switch (requestCode) {
-            case CUSTOM_ACTIVITY_REQUEST_CODE:
-                if (resultCode == Activity.RESULT_OK) {
-                    String type = data.getStringExtra("type");
-                    if (type == null) {
-                        Log.w("FlutterBraintreePlugin", "Type is null in Intent data");
-                        activeResult.error("error", "Type is null in method: " + currentMethod, null);
-                    } else if (type.equals("paymentMethodNonce")) {
-                        Log.d("FlutterBraintreePlugin", "Received paymentMethodNonce");
-                        activeResult.success(data.getSerializableExtra("paymentMethodNonce"));
-                    } else if (type.equals("isReadyToPay")) {
-                        Log.d("FlutterBraintreePlugin", "Received isReadyToPay");
-                        activeResult.success(data.getBooleanExtra("isReadyToPay", false));
-                    } else {
-                        Log.w("FlutterBraintreePlugin", "Invalid activity result type: " + type);
-                        Exception error = new Exception("Invalid activity result type.");
-                        activeResult.error("error", error.getMessage() + " in method: " + currentMethod, null);
-                    }
-                } else if (resultCode == Activity.RESULT_CANCELED) {
-                    String error = data.getStringExtra("error");
-                    if (error != null) {
-                        Log.w("FlutterBraintreePlugin", "Activity canceled with error: " + error);
-                        activeResult.error("error", error + " in method: " + currentMethod, null);
-                    } else {
-                        Log.d("FlutterBraintreePlugin", "Activity canceled without error");
-                        activeResult.success(null);
-                    }
-                } else {
-                    Exception error = (Exception) data.getSerializableExtra("error");
-                    if (error != null) {
-                        Log.w("FlutterBraintreePlugin", "Activity failed with error: " + error.getMessage());
-                        activeResult.error("error", error.getMessage() + " in method: " + currentMethod, null);
-                    } else {
-                        Log.w("FlutterBraintreePlugin", "Activity failed with unknown error");
-                        activeResult.error("error", "Unknown error in method: " + currentMethod, null);
-                    }
-                }
-                activeResult = null;
+    /** Runs the flow on the host activity in host mode, otherwise in {@link FlutterBraintreeCustom}. */
+    private void launchFlow(Intent intent, FlutterBraintreeOperation operation) {
+        if (!launchInHost) {
+            launchCustomActivity(intent, operation);
+            return;
+        }
+        mainHandler.post(() -> {
+            Activity current = activity;
+            if (current == null) {
+                operation.error("error", "Activity detached in method: " + operation.getMethod(), null);
+                return;
+            }
+            if (!hostLaunchers.isRegistered()) {
+                FlutterBraintreeLog.d("FlutterBraintreePlugin", "No launchers on the host, using the trampoline");
+                startCustomActivity(current, intent, operation);
+                return;
+            }
+            hostFlow = new FlutterBraintreeHostFlow((ComponentActivity) current, intent, operation);
+            hostFlow.start(hostLaunchers);
+        });
+    }
+
+    private static Bundle toBundle(Map map) {
+        Bundle bundle = new Bundle();
+        if (map == null) return bundle;
+        for (Object entry : map.entrySet()) {
+            Map.Entry field = (Map.Entry) entry;
+            bundle.putString((String) field.getKey(), (String) field.getValue());
+        }
+        return bundle;
+    }
+
+    /** Decodes the card request argument, or replies with an error and returns null if it is malformed. */
+    private static FlutterBraintreeCardRequest cardRequest(MethodCall call, Result result) {
+        try {
+            return FlutterBraintreeCardRequest.from(call.argument("request"));
+        } catch (IllegalArgumentException e) {
+            result.error("error", e.getMessage() + " in method: " + call.method, null);
+            return null;
+        }
+    }
+
+    private static List<FlutterBraintreeCardRequest> cardRequests(MethodCall call, Result result) {
+        Object requests = call.argument("requests");
+        if (!(requests instanceof List)) {
+            result.error("error", "Card requests are missing in method: " + call.method, null);
+            return null;
+        }
+        List<FlutterBraintreeCardRequest> cards = new ArrayList<>(((List<?>) requests).size());
+        try {
+            for (Object request : (List<?>) requests) {
+                cards.add(FlutterBraintreeCardRequest.from(request));
+            }
+        } catch (IllegalArgumentException e) {
+            result.error("error", e.getMessage() + " in method: " + call.method, null);
+            return null;
+        }
+        return cards;
+    }
+
+    private static boolean launchesUi(String method) {
+        switch (method) {
+            case "requestPaypalNonce":
+            case "startThreeDSecureFlow":
+            case "tokenizeAndVerifyCard":
+            case "startGooglePaymentFlow":
                 return true;
             default:
-                Log.w("FlutterBraintreePlugin", "Unhandled requestCode: " + requestCode);
                 return false;
         }
     }
-}
+
+    @Override
+    public boolean onActivityResult(int requestCode, int resultCode, Intent data) {
+        FlutterBraintreeLog.d("FlutterBraintreePlugin", "onActivityResult called with requestCode/resultCode:", requestCode, resultCode);
+
+        if (requestCode != CUSTOM_ACTIVITY_REQUEST_CODE) {
+            FlutterBraintreeLog.w("FlutterBraintreePlugin", "Unhandled requestCode:", requestCode);
+            return false;
+        }
+
+        FlutterBraintreeOperation operation = operations.getUiOperation();
+        // A host torn down after a cancel or timeout may report back after the next flow started.
+        // Its result has the old request id, or no data at all if it was finished before replying.
+        boolean stale = operation == null
+            || (data != null && data.getIntExtra("requestId", operation.getRequestId()) != operation.getRequestId())
+            || (data == null && tornDownLaunches > 0);
+        if (stale) {
+            if (tornDownLaunches > 0) {
+                tornDownLaunches--;
+            }
+            if (operation == null) {
+                FlutterBraintreeLog.w("FlutterBraintreePlugin", "No UI operation in flight, cannot handle activity result");
+                return false;
+            }
+            FlutterBraintreeLog.w("FlutterBraintreePlugin", "Ignoring result of a finished operation");
+            return true;
+        }
+        if (launchedRequestId == operation.getRequestId()) {
+            launchedRequestId = -1;
+        }
+        String currentMethod = operation.getMethod();
+
+        if (data == null) {
+            FlutterBraintreeLog.w("FlutterBraintreePlugin", "Intent data is null");
+            operation.error("error", "Intent data is null in method: " + currentMethod, null);
+            return true;
+        }
+
+        if (resultCode == Activity.RESULT_OK) {
+            String type = data.getStringExtra("type");
+            if (type == null) {
+                FlutterBraintreeLog.w("FlutterBraintreePlugin", "Type is null in Intent data");
+                operation.error("error", "Type is null in method: " + currentMethod, null);
+            } else if (type.equals("paymentMethodNonce")) {
+                FlutterBraintreeLog.d("FlutterBraintreePlugin", "Received paymentMethodNonce");
+                FlutterBraintreeNonceResult nonceResult = data.getParcelableExtra("paymentMethodNonce");
+                operation.success(nonceResult);
+            } else {
+                FlutterBraintreeLog.w("FlutterBraintreePlugin", "Invalid activity result type:", type);
+                Exception error = new Exception("Invalid activity result type.");
+                operation.error("error", error.getMessage() + " in method: " + currentMethod, null);
+            }
+        } else if (resultCode == Activity.RESULT_CANCELED) {
+            String error = data.getStringExtra("error");
+            if (error != null) {
+                FlutterBraintreeLog.w("FlutterBraintreePlugin", "Activity canceled with error:", error);
+                operation.error("error", error + " in method: " + currentMethod, null);
+            } else {
+                FlutterBraintreeLog.d("FlutterBraintreePlugin", "Activity canceled without error");
+                operation.success(null);
+            }
+        } else {
+            String error = data.getStringExtra("error");
+            if (error != null) {
+                FlutterBraintreeLog.w("FlutterBraintreePlugin", "Activity failed with error:", error);
+                operation.error("error", error + " in method: " + currentMethod, null);
+            } else {
+                FlutterBraintreeLog.w("FlutterBraintreePlugin", "Activity failed with unknown error");
+                operation.error("error", "Unknown error in method: " + currentMethod, null);
+            }
+        }
+        return true;
+    }
+}
\ No newline at end of file
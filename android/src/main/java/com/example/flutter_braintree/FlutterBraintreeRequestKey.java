@@ -0,0 +1,93 @@
+package com.example.flutter_braintree;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Identity of a method call, used to coalesce identical calls that are in flight together.
+ *
+ * The arguments are fed in a canonical order into an HMAC-SHA256 keyed with a random
+ * per-process secret, so the key never contains the card data it was derived from and
+ * cannot be reversed by trying candidate card numbers.
+ */
+final class FlutterBraintreeRequestKey {
+
+    private static final byte[] secret = new byte[32];
+
+    static {
+        new SecureRandom().nextBytes(secret);
+    }
+
+    private FlutterBraintreeRequestKey() {
+    }
+
+    /** Returns the key for the call, or null if it cannot be computed. */
+    static String of(String method, Object arguments) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            update(mac, arguments);
+            byte[] digest = mac.doFinal();
+            StringBuilder sb = new StringBuilder(method.length() + 1 + digest.length * 2);
+            sb.append(method).append(':');
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (GeneralSecurityException e) {
+            FlutterBraintreeLog.w("FlutterBraintreeRequestKey", "HmacSHA256 unavailable", e);
+            return null;
+        }
+    }
+
+    private static void update(Mac mac, Object value) {
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            List<String> keys = new ArrayList<>();
+            for (Object key : map.keySet()) {
+                keys.add(String.valueOf(key));
+            }
+            Collections.sort(keys);
+            mac.update((byte) '{');
+            for (String key : keys) {
+                updateString(mac, key);
+                update(mac, map.get(key));
+            }
+            mac.update((byte) '}');
+        } else if (value instanceof List) {
+            mac.update((byte) '[');
+            for (Object item : (List<?>) value) {
+                update(mac, item);
+            }
+            mac.update((byte) ']');
+        } else if (value instanceof FlutterBraintreeCardRequest) {
+            FlutterBraintreeCardRequest card = (FlutterBraintreeCardRequest) value;
+            mac.update((byte) 'c');
+            update(mac, card.cardNumber);
+            update(mac, card.expirationMonth);
+            update(mac, card.expirationYear);
+            update(mac, card.cvv);
+            update(mac, card.cardholderName);
+        } else if (value == null) {
+            mac.update((byte) 'n');
+        } else {
+            mac.update((byte) (value instanceof String ? 's' : 'v'));
+            updateString(mac, value.toString());
+        }
+    }
+
+    private static void updateString(Mac mac, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        mac.update(new byte[] {(byte) (length >> 24), (byte) (length >> 16), (byte) (length >> 8), (byte) length});
+        mac.update(bytes);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.flutter_braintree;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries idempotent, non-UI gateway calls such as card tokenization and the Google Pay
+ * readiness check when they fail for transient reasons.
+ *
+ * Only errors caused by an {@link IOException} are retried, with capped exponential backoff
+ * and jitter; declines, validation and authorization errors fail straight away. A circuit
+ * breaker per authorization opens after several transient failures in a row and fails
+ * calls fast until {@link #OPEN_MS} has passed, after which a single probe is let through.
+ * Any answer from the gateway, including an error that is not transient, counts as a
+ * success for the breaker: it resets the failure count and closes a half-open circuit.
+ * Retries are scheduled on a background thread, so callbacks of a retried attempt may
+ * arrive off the main thread.
+ */
+public final class FlutterBraintreeRetryPolicy {
+
+    public interface Attempt<T> {
+        void run(Callback<T> callback);
+    }
+
+    public interface Callback<T> {
+        void onSuccess(T value);
+
+        void onFailure(Exception error);
+    }
+
+    static final int MAX_ATTEMPTS = 3;
+    static final long BASE_DELAY_MS = 250;
+    static final long MAX_DELAY_MS = 2000;
+    static final int FAILURE_THRESHOLD = 5;
+    static final long OPEN_MS = 30 * 1000;
+
+    private static final FlutterBraintreeRetryPolicy instance = new FlutterBraintreeRetryPolicy();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Random random = new Random();
+    private final HashMap<String, Breaker> breakers = new HashMap<>();
+
+    private FlutterBraintreeRetryPolicy() {
+    }
+
+    public static FlutterBraintreeRetryPolicy getInstance() {
+        return instance;
+    }
+
+    public static boolean isTransient(Exception error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public <T> void execute(String authorization, Attempt<T> attempt, Callback<T> callback) {
+        run(authorization, attempt, callback, 1);
+    }
+
+    private <T> void run(String authorization, Attempt<T> attempt, Callback<T> callback, int attemptNumber) {
+        if (!allowRequest(authorization)) {
+            FlutterBraintreeLog.w("FlutterBraintreeRetryPolicy", "circuit open, failing fast");
+            callback.onFailure(new IOException("Gateway unavailable, try again later"));
+            return;
+        }
+        attempt.run(new Callback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                recordSuccess(authorization);
+                callback.onSuccess(value);
+            }
+
+            @Override
+            public void onFailure(Exception error) {
+                if (!isTransient(error)) {
+                    // A decline or validation error is still an answer, the gateway is up
+                    recordSuccess(authorization);
+                    callback.onFailure(error);
+                    return;
+                }
+                recordFailure(authorization);
+                if (attemptNumber >= MAX_ATTEMPTS) {
+                    callback.onFailure(error);
+                    return;
+                }
+                long delayMs = delayFor(attemptNumber);
+                FlutterBraintreeLog.w("FlutterBraintreeRetryPolicy", "transient failure, retrying in ms:", delayMs);
+                scheduler.schedule(() -> run(authorization, attempt, callback, attemptNumber + 1), delayMs, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /** Half the capped exponential bound for the attempt, plus a random share of the other half. */
+    private long delayFor(int attemptNumber) {
+        long bound = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << (attemptNumber - 1));
+        synchronized (random) {
+            return bound / 2 + (long) (random.nextDouble() * (bound / 2));
+        }
+    }
+
+    private synchronized boolean allowRequest(String authorization) {
+        Breaker breaker = breakers.get(authorization);
+        if (breaker == null || breaker.openUntil == 0) return true;
+        if (SystemClock.elapsedRealtime() < breaker.openUntil) return false;
+        // Half-open: let one probe through and fail the rest fast until it settles.
+        // A success closes the circuit, a failure opens it again.
+        if (breaker.probeInFlight) return false;
+        breaker.probeInFlight = true;
+        breaker.consecutiveFailures = FAILURE_THRESHOLD - 1;
+        return true;
+    }
+
+    private synchronized void recordSuccess(String authorization) {
+        breakers.remove(authorization);
+    }
+
+    private synchronized void recordFailure(String authorization) {
+        Breaker breaker = breakers.get(authorization);
+        if (breaker == null) {
+            breaker = new Breaker();
+            breakers.put(authorization, breaker);
+        }
+        breaker.consecutiveFailures++;
+        breaker.probeInFlight = false;
+        if (breaker.consecutiveFailures >= FAILURE_THRESHOLD) {
+            breaker.openUntil = SystemClock.elapsedRealtime() + OPEN_MS;
+        }
+    }
+
+    private static class Breaker {
+        int consecutiveFailures = 0;
+        long openUntil = 0;
+        boolean probeInFlight = false;
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.flutter_braintree;
+
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records how long each stage of a payment flow takes, keyed by operation request id.
+ *
+ * The plugin, {@link FlutterBraintreeCustom} and the handlers all run in the same process,
+ * so they mark stages directly against {@link SystemClock#elapsedRealtimeNanos()} without
+ * passing timestamps through intents. Finished traces are kept in a small ring until Dart
+ * collects them with {@code getFlowTraces}. While Dart listens on the progress channel,
+ * every stage is also emitted as it is reached.
+ */
+public final class FlutterBraintreeTracer {
+
+    public static final String METHOD_CALL_RECEIVED = "methodCallReceived";
+    public static final String ACTIVITY_CREATED = "activityCreated";
+    public static final String CLIENT_CONSTRUCTED = "clientConstructed";
+    public static final String CONFIGURATION_FETCHED = "configurationFetched";
+    public static final String AUTH_REQUEST_CREATED = "authRequestCreated";
+    public static final String UI_LAUNCHED = "uiLaunched";
+    public static final String RETURNED_TO_APP = "returnedToApp";
+    public static final String TOKENIZING = "tokenizing";
+    public static final String TOKENIZE_COMPLETE = "tokenizeComplete";
+    public static final String RESULT_DELIVERED = "resultDelivered";
+
+    static final int MAX_FINISHED_TRACES = 64;
+
+    private static final ConcurrentHashMap<Integer, Trace> activeTraces = new ConcurrentHashMap<>();
+    private static final ArrayDeque<Trace> finishedTraces = new ArrayDeque<>();
+    private static volatile FlutterBraintreeEventStream progressEvents;
+    private static volatile StageListener stageListener;
+
+    public interface StageListener {
+        void onStage(int requestId, String stage);
+    }
+
+    private FlutterBraintreeTracer() {
+    }
+
+    public static void setProgressEvents(FlutterBraintreeEventStream events) {
+        progressEvents = events;
+    }
+
+    public static void setStageListener(StageListener listener) {
+        stageListener = listener;
+    }
+
+    public static void begin(int requestId, String method) {
+        Trace trace = new Trace(requestId, method);
+        activeTraces.put(requestId, trace);
+        trace.mark(METHOD_CALL_RECEIVED);
+    }
+
+    /** Records a stage for the request. Does nothing for unknown or finished requests. */
+    public static void mark(int requestId, String stage) {
+        Trace trace = activeTraces.get(requestId);
+        if (trace != null) {
+            trace.mark(stage);
+        }
+    }
+
+    public static void finish(int requestId, String outcome) {
+        Trace trace = activeTraces.remove(requestId);
+        if (trace == null) return;
+        trace.mark(RESULT_DELIVERED);
+        trace.outcome = outcome;
+        synchronized (finishedTraces) {
+            if (finishedTraces.size() == MAX_FINISHED_TRACES) {
+                finishedTraces.removeFirst();
+            }
+            finishedTraces.addLast(trace);
+        }
+    }
+
+    /** Returns the finished traces, oldest first, and clears them. */
+    public static List<HashMap<String, Object>> drainFinished() {
+        List<Trace> traces;
+        synchronized (finishedTraces) {
+            traces = new ArrayList<>(finishedTraces);
+            finishedTraces.clear();
+        }
+        List<HashMap<String, Object>> result = new ArrayList<>(traces.size());
+        for (Trace trace : traces) {
+            result.add(trace.toMap());
+        }
+        return result;
+    }
+
+    private static class Trace {
+        final int requestId;
+        final String method;
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        final List<String> stages = new ArrayList<>();
+        final List<Long> offsetsNanos = new ArrayList<>();
+        String outcome;
+
+        Trace(int requestId, String method) {
+            this.requestId = requestId;
+            this.method = method;
+        }
+
+        void mark(String stage) {
+            long offsetNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+            synchronized (this) {
+                stages.add(stage);
+                offsetsNanos.add(offsetNanos);
+            }
+            FlutterBraintreeEventStream events = progressEvents;
+            if (events != null && events.hasListener()) {
+                HashMap<String, Object> progress = new HashMap<>();
+                progress.put("requestId", requestId);
+                progress.put("method", method);
+                progress.put("stage", stage);
+                progress.put("offsetMicros", offsetNanos / 1000);
+                events.emit(progress);
+            }
+            StageListener listener = stageListener;
+            if (listener != null) {
+                listener.onStage(requestId, stage);
+            }
+        }
+
+        synchronized HashMap<String, Object> toMap() {
+            List<HashMap<String, Object>> stageMaps = new ArrayList<>(stages.size());
+            for (int i = 0; i < stages.size(); i++) {
+                HashMap<String, Object> stageMap = new HashMap<>();
+                stageMap.put("stage", stages.get(i));
+                stageMap.put("offsetMicros", offsetsNanos.get(i) / 1000);
+                stageMaps.add(stageMap);
+            }
+            HashMap<String, Object> traceMap = new HashMap<>();
+            traceMap.put("requestId", requestId);
+            traceMap.put("method", method);
+            traceMap.put("outcome", outcome);
+            traceMap.put("stages", stageMaps);
+            return traceMap;
+        }
+    }
+}
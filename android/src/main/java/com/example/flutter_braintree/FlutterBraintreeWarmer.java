@@ -0,0 +1,110 @@
+package com.example.flutter_braintree;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.flutter.plugin.common.MethodChannel.Result;
+
+/**
+ * Does the per-authorization setup of a payment flow before the user starts one.
+ *
+ * Clients are built into {@link FlutterBraintreeClientRegistry} on a background thread.
+ * Device data collection and the Google Pay readiness check both fetch the gateway
+ * configuration, which the SDK then keeps for later calls with the same authorization.
+ * The reply lists what was warmed once every part has finished or given up.
+ */
+public class FlutterBraintreeWarmer {
+
+    public static final String FLOW_CARD = "card";
+    public static final String FLOW_THREE_D_SECURE = "threeDSecure";
+    public static final String FLOW_PAYPAL = "payPal";
+    public static final String FLOW_GOOGLE_PAY = "googlePay";
+
+    private static final List<String> ALL_FLOWS =
+        Arrays.asList(FLOW_CARD, FLOW_THREE_D_SECURE, FLOW_PAYPAL, FLOW_GOOGLE_PAY);
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final Context applicationContext;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public FlutterBraintreeWarmer(Context context) {
+        this.applicationContext = context.getApplicationContext();
+    }
+
+    /**
+     * Warms the given flows for the authorization, or all of them when flows is null.
+     * The PayPal client is only built when a returnUrl is given, since it is keyed by it.
+     */
+    public void warmUp(String authorization, List<String> flows, String returnUrl, Result result) {
+        if (authorization == null) {
+            result.error("error", "Authorization is required in method: warmUp", null);
+            return;
+        }
+        final List<String> requestedFlows = flows == null ? ALL_FLOWS : flows;
+        executor.execute(() -> {
+            List<String> clients = new ArrayList<>();
+            try {
+                FlutterBraintreeClientRegistry clientRegistry = FlutterBraintreeClientRegistry.getInstance(applicationContext);
+                if (requestedFlows.contains(FLOW_CARD) || requestedFlows.contains(FLOW_THREE_D_SECURE)) {
+                    clientRegistry.getCardClient(authorization);
+                    clients.add(FLOW_CARD);
+                }
+                if (requestedFlows.contains(FLOW_THREE_D_SECURE)) {
+                    clientRegistry.getThreeDSecureClient(authorization);
+                    clients.add(FLOW_THREE_D_SECURE);
+                }
+                if (requestedFlows.contains(FLOW_PAYPAL) && returnUrl != null) {
+                    clientRegistry.getPayPalClient(authorization, returnUrl);
+                    clients.add(FLOW_PAYPAL);
+                }
+                if (requestedFlows.contains(FLOW_GOOGLE_PAY)) {
+                    clientRegistry.getGooglePayClient(authorization);
+                    clients.add(FLOW_GOOGLE_PAY);
+                }
+            } catch (Exception e) {
+                FlutterBraintreeLog.e("FlutterBraintreeWarmer", "Client construction failed", e);
+                mainHandler.post(() -> result.error("error", e.getMessage() + " in method: warmUp", null));
+                return;
+            }
+            FlutterBraintreeLog.d("FlutterBraintreeWarmer", "clients warmed:", clients.size());
+
+            HashMap<String, Object> report = new HashMap<>();
+            report.put("clients", clients);
+            boolean checkGooglePay = requestedFlows.contains(FLOW_GOOGLE_PAY);
+            AtomicInteger remaining = new AtomicInteger(checkGooglePay ? 2 : 1);
+            Runnable partDone = () -> {
+                if (remaining.decrementAndGet() == 0) {
+                    // A cached readiness answer arrives on this executor, replies go out on main
+                    mainHandler.post(() -> result.success(report));
+                }
+            };
+
+            FlutterBraintreeDeviceDataCache deviceDataCache = FlutterBraintreeDeviceDataCache.getInstance(applicationContext);
+            deviceDataCache.prefetch(authorization);
+            deviceDataCache.await(authorization, FlutterBraintreeDeviceDataCache.DEFAULT_WAIT_MS, deviceData -> {
+                synchronized (report) {
+                    report.put("deviceData", deviceData != null);
+                }
+                partDone.run();
+            });
+            if (checkGooglePay) {
+                FlutterBraintreeGooglePayReadinessCache.getInstance(applicationContext).check(authorization, isReadyToPay -> {
+                    synchronized (report) {
+                        report.put("googlePayReady", isReadyToPay);
+                    }
+                    partDone.run();
+                });
+            }
+        });
+    }
+}
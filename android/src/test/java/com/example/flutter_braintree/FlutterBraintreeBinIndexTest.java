@@ -0,0 +1,115 @@
+package com.example.flutter_braintree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class FlutterBraintreeBinIndexTest {
+
+    private FlutterBraintreeBinIndex binIndex;
+
+    @Before
+    public void setUp() {
+        binIndex = FlutterBraintreeBinIndex.getInstance(ApplicationProvider.getApplicationContext());
+    }
+
+    @Test
+    public void lookup_resolvesBundledBrands() {
+        assertEquals("Visa", binIndex.lookup("4111111111111111"));
+        assertEquals("American Express", binIndex.lookup("378282246310005"));
+        assertEquals("MasterCard", binIndex.lookup("5555555555554444"));
+        assertEquals("Discover", binIndex.lookup("6011111111111117"));
+        assertEquals("JCB", binIndex.lookup("3530111333300000"));
+    }
+
+    @Test
+    public void lookup_includesBothRangeEnds() {
+        assertEquals("MasterCard", binIndex.lookup("22210000"));
+        assertEquals("MasterCard", binIndex.lookup("27209999"));
+        assertNull(binIndex.lookup("22209999"));
+        assertNull(binIndex.lookup("27210000"));
+        assertEquals("JCB", binIndex.lookup("35280000"));
+        assertEquals("JCB", binIndex.lookup("35899999"));
+        assertNull(binIndex.lookup("35279999"));
+        assertNull(binIndex.lookup("35900000"));
+    }
+
+    @Test
+    public void lookup_outsideEveryRange() {
+        assertNull(binIndex.lookup("1111111111111111"));
+        assertNull(binIndex.lookup("99999999"));
+    }
+
+    @Test
+    public void lookup_specificRangesOverrideFallbacks() {
+        assertEquals("Elo", binIndex.lookup("5041750000000000"));
+        assertEquals("Maestro", binIndex.lookup("5041760000000000"));
+        assertEquals("Maestro", binIndex.lookup("5000000000000000"));
+        assertEquals("Discover", binIndex.lookup("6221260000000000"));
+        assertEquals("Discover", binIndex.lookup("6229250000000000"));
+        assertEquals("UnionPay", binIndex.lookup("6221250000000000"));
+        assertEquals("UnionPay", binIndex.lookup("6229260000000000"));
+        assertEquals("Elo", binIndex.lookup("6277800000000000"));
+    }
+
+    @Test
+    public void lookup_waitsForEnoughDigits() {
+        assertNull(binIndex.lookup("3"));
+        assertEquals("American Express", binIndex.lookup("37"));
+        assertNull(binIndex.lookup("62"));
+        assertNull(binIndex.lookup("6221"));
+        assertEquals("Discover", binIndex.lookup("62213"));
+        assertEquals("UnionPay", binIndex.lookup("6200"));
+        assertEquals("Visa", binIndex.lookup("41"));
+        assertNull(binIndex.lookup("4011"));
+    }
+
+    @Test
+    public void lookup_ignoresSeparatorsAndRejectsOtherCharacters() {
+        assertEquals("Visa", binIndex.lookup("4111 1111-1111 1111"));
+        assertNull(binIndex.lookup("4111a111"));
+        assertNull(binIndex.lookup(""));
+        assertNull(binIndex.lookup(null));
+    }
+
+    @Test
+    public void flatten_narrowestRangeWins() {
+        List<int[]> ranges = new ArrayList<>();
+        ranges.add(new int[] {0, 99, 0});
+        ranges.add(new int[] {10, 19, 1});
+        ranges.add(new int[] {12, 13, 2});
+
+        List<int[]> segments = FlutterBraintreeBinIndex.flatten(ranges);
+
+        assertEquals(Arrays.asList("0-9:0", "10-11:1", "12-13:2", "14-19:1", "20-99:0"), describe(segments));
+    }
+
+    @Test
+    public void flatten_mergesAdjacentSegmentsOfOneBrand() {
+        List<int[]> ranges = new ArrayList<>();
+        ranges.add(new int[] {0, 9, 0});
+        ranges.add(new int[] {10, 19, 0});
+        ranges.add(new int[] {30, 39, 0});
+
+        assertEquals(Arrays.asList("0-19:0", "30-39:0"), describe(FlutterBraintreeBinIndex.flatten(ranges)));
+    }
+
+    private static List<String> describe(List<int[]> segments) {
+        List<String> described = new ArrayList<>();
+        for (int[] segment : segments) {
+            described.add(segment[0] + "-" + segment[1] + ":" + segment[2]);
+        }
+        return described;
+    }
+}
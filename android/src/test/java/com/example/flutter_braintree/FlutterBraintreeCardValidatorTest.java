@@ -0,0 +1,143 @@
+package com.example.flutter_braintree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import java.util.Calendar;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class FlutterBraintreeCardValidatorTest {
+
+    private FlutterBraintreeBinIndex binIndex;
+    private int currentYear;
+    private int currentMonth;
+
+    @Before
+    public void setUp() {
+        binIndex = FlutterBraintreeBinIndex.getInstance(ApplicationProvider.getApplicationContext());
+        Calendar now = Calendar.getInstance();
+        currentYear = now.get(Calendar.YEAR);
+        currentMonth = now.get(Calendar.MONTH) + 1;
+    }
+
+    @Test
+    public void passesLuhn_acceptsValidAndRejectsAlteredNumbers() {
+        assertTrue(FlutterBraintreeCardValidator.passesLuhn("4111111111111111"));
+        assertTrue(FlutterBraintreeCardValidator.passesLuhn("378282246310005"));
+        assertFalse(FlutterBraintreeCardValidator.passesLuhn("4111111111111112"));
+        assertFalse(FlutterBraintreeCardValidator.passesLuhn("378282246310006"));
+    }
+
+    @Test
+    public void errors_emptyForValidCard() {
+        assertTrue(errors("4111 1111-1111 1111", "12", nextYear(), "123").isEmpty());
+        assertTrue(errors("378282246310005", "12", nextYear(), "1234").isEmpty());
+    }
+
+    @Test
+    public void errors_reportsMissingAndMalformedNumber() {
+        assertEquals(FlutterBraintreeCardValidator.REQUIRED, errors("  ", "12", nextYear(), "123").get("cardNumber"));
+        assertEquals(FlutterBraintreeCardValidator.INVALID, errors("4111abcd11111111", "12", nextYear(), "123").get("cardNumber"));
+        assertEquals(FlutterBraintreeCardValidator.CHECKSUM, errors("4111111111111112", "12", nextYear(), "123").get("cardNumber"));
+    }
+
+    @Test
+    public void errors_acceptsFullNetworkLengthRanges() {
+        assertTrue(errors("411111111111111118", "12", nextYear(), "123").isEmpty());
+        assertTrue(errors("4111111111111111110", "12", nextYear(), "123").isEmpty());
+    }
+
+    @Test
+    public void errors_reportsLengthOutsideBrandRange() {
+        assertEquals(FlutterBraintreeCardValidator.LENGTH, errors("3782822463100003", "12", nextYear(), "1234").get("cardNumber"));
+    }
+
+    @Test
+    public void errors_skipsChecksumForUnionPay() {
+        assertEquals("UnionPay", binIndex.lookup("6200000000000001"));
+        assertNull(errors("6200000000000001", "12", nextYear(), "123").get("cardNumber"));
+    }
+
+    @Test
+    public void errors_checksCvvLengthForBrand() {
+        assertEquals(FlutterBraintreeCardValidator.LENGTH, errors("378282246310005", "12", nextYear(), "123").get("cvv"));
+        assertEquals(FlutterBraintreeCardValidator.LENGTH, errors("4111111111111111", "12", nextYear(), "1234").get("cvv"));
+        assertEquals(FlutterBraintreeCardValidator.INVALID, errors("4111111111111111", "12", nextYear(), "12a").get("cvv"));
+        assertNull(errors("4111111111111111", "12", nextYear(), "").get("cvv"));
+    }
+
+    @Test
+    public void errors_checksExpiryFields() {
+        HashMap<String, String> missing = errors("4111111111111111", "", "", "123");
+        assertEquals(FlutterBraintreeCardValidator.REQUIRED, missing.get("expirationMonth"));
+        assertEquals(FlutterBraintreeCardValidator.REQUIRED, missing.get("expirationYear"));
+
+        assertEquals(FlutterBraintreeCardValidator.INVALID, errors("4111111111111111", "13", nextYear(), "123").get("expirationMonth"));
+        assertEquals(FlutterBraintreeCardValidator.INVALID, errors("4111111111111111", "0", nextYear(), "123").get("expirationMonth"));
+        assertEquals(FlutterBraintreeCardValidator.INVALID, errors("4111111111111111", "12", "123", "123").get("expirationYear"));
+        assertEquals(FlutterBraintreeCardValidator.INVALID,
+            errors("4111111111111111", "12", String.valueOf(currentYear + FlutterBraintreeCardValidator.MAX_YEARS_AHEAD + 1), "123")
+                .get("expirationYear"));
+    }
+
+    @Test
+    public void errors_checksExpiryAgainstToday() {
+        assertEquals(FlutterBraintreeCardValidator.EXPIRED,
+            errors("4111111111111111", "12", String.valueOf(currentYear - 1), "123").get("expirationYear"));
+        assertTrue(errors("4111111111111111", String.valueOf(currentMonth), String.valueOf(currentYear), "123").isEmpty());
+        String twoDigitYear = String.format("%02d", (currentYear + 1) % 100);
+        assertTrue(errors("4111111111111111", "01", twoDigitYear, "123").isEmpty());
+        if (currentMonth > 1) {
+            assertEquals(FlutterBraintreeCardValidator.EXPIRED,
+                errors("4111111111111111", String.valueOf(currentMonth - 1), String.valueOf(currentYear), "123")
+                    .get("expirationMonth"));
+        }
+    }
+
+    @Test
+    public void blockingErrors_ignoresAdvisoryLengthAndCvv() {
+        FlutterBraintreeCardRequest card = card("3782822463100003", "12", nextYear(), "12");
+        assertEquals(2, FlutterBraintreeCardValidator.errors(card, binIndex).size());
+        assertTrue(FlutterBraintreeCardValidator.blockingErrors(card, binIndex).isEmpty());
+    }
+
+    @Test
+    public void blockingErrors_enforcesNumberChecksumAndExpiry() {
+        assertEquals(FlutterBraintreeCardValidator.REQUIRED,
+            FlutterBraintreeCardValidator.blockingErrors(card("", "12", nextYear(), ""), binIndex).get("cardNumber"));
+        assertEquals(FlutterBraintreeCardValidator.CHECKSUM,
+            FlutterBraintreeCardValidator.blockingErrors(card("4111111111111112", "12", nextYear(), ""), binIndex).get("cardNumber"));
+        assertEquals(FlutterBraintreeCardValidator.EXPIRED,
+            FlutterBraintreeCardValidator.blockingErrors(card("4111111111111111", "12", String.valueOf(currentYear - 1), ""), binIndex)
+                .get("expirationYear"));
+    }
+
+    @Test
+    public void validate_returnsBrandAndErrors() {
+        HashMap<String, Object> validation = FlutterBraintreeCardValidator.validate(card("4111111111111111", "12", nextYear(), "123"), binIndex);
+        assertEquals("Visa", validation.get("brand"));
+        assertEquals(new HashMap<String, String>(), validation.get("errors"));
+    }
+
+    private HashMap<String, String> errors(String number, String month, String year, String cvv) {
+        return FlutterBraintreeCardValidator.errors(card(number, month, year, cvv), binIndex);
+    }
+
+    private String nextYear() {
+        return String.valueOf(currentYear + 1);
+    }
+
+    private static FlutterBraintreeCardRequest card(String number, String month, String year, String cvv) {
+        return new FlutterBraintreeCardRequest(number, month, year, cvv, null);
+    }
+}
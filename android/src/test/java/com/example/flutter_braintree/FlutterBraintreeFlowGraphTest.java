@@ -0,0 +1,187 @@
+package com.example.flutter_braintree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class FlutterBraintreeFlowGraphTest {
+
+    private final FlutterBraintreeFlowGraph graph = new FlutterBraintreeFlowGraph("test");
+    private final HashMap<String, FlutterBraintreeFlowGraph.StepCallback> running = new HashMap<>();
+    private final List<String> started = new ArrayList<>();
+    private final RecordingListener listener = new RecordingListener();
+
+    @Test
+    public void start_runsIndependentStepsTogether() {
+        graph.add("a", 1000, true, step("a"))
+            .add("b", 1000, true, step("b"));
+
+        graph.start(listener);
+
+        assertEquals(List.of("a", "b"), started);
+    }
+
+    @Test
+    public void start_waitsForEveryDependency() {
+        graph.add("a", 1000, true, step("a"))
+            .add("b", 1000, true, step("b"))
+            .add("c", 1000, true, step("c"), "a", "b");
+        graph.start(listener);
+
+        running.get("a").onSuccess("first");
+        assertEquals(List.of("a", "b"), started);
+
+        running.get("b").onSuccess("second");
+        assertEquals(List.of("a", "b", "c"), started);
+        assertEquals("first", graph.get("a"));
+
+        running.get("c").onSuccess("third");
+        assertEquals(1, listener.completions);
+        assertEquals("third", graph.get("c"));
+    }
+
+    @Test
+    public void add_rejectsUnknownDependency() {
+        assertThrows(IllegalArgumentException.class, () -> graph.add("b", 1000, true, step("b"), "a"));
+    }
+
+    @Test
+    public void deadline_failsFlowForRequiredStep() {
+        graph.add("a", 1000, true, step("a"))
+            .add("b", 1000, true, step("b"), "a");
+        graph.start(listener);
+
+        idleFor(999);
+        assertEquals(0, listener.failures.size());
+
+        idleFor(1);
+        assertEquals(1, listener.failures.size());
+        assertTrue(listener.failures.get(0) instanceof TimeoutException);
+
+        // A late result is ignored and does not start the dependent step
+        running.get("a").onSuccess("late");
+        assertEquals(List.of("a"), started);
+        assertEquals(0, listener.completions);
+    }
+
+    @Test
+    public void deadline_completesOptionalStepWithNull() {
+        graph.add("a", 500, false, step("a"))
+            .add("b", 1000, true, step("b"), "a");
+        graph.start(listener);
+
+        idleFor(500);
+        assertEquals(List.of("a", "b"), started);
+        assertNull(graph.get("a"));
+
+        running.get("b").onSuccess("done");
+        assertEquals(1, listener.completions);
+        assertEquals(0, listener.failures.size());
+    }
+
+    @Test
+    public void deadline_droppedOnceStepFinishes() {
+        graph.add("a", 1000, true, step("a"));
+        graph.start(listener);
+
+        running.get("a").onSuccess("done");
+        idleFor(2000);
+
+        assertEquals(1, listener.completions);
+        assertEquals(0, listener.failures.size());
+    }
+
+    @Test
+    public void failure_ofOptionalStepCompletesWithNull() {
+        graph.add("a", 1000, false, step("a"));
+        graph.start(listener);
+
+        running.get("a").onFailure(new Exception("unavailable"));
+
+        assertEquals(1, listener.completions);
+        assertNull(graph.get("a"));
+    }
+
+    @Test
+    public void failure_ofRequiredStepEndsFlowOnce() {
+        graph.add("a", 1000, true, step("a"))
+            .add("b", 1000, true, step("b"));
+        graph.start(listener);
+
+        Exception error = new Exception("declined");
+        running.get("a").onFailure(error);
+        running.get("b").onFailure(new Exception("second"));
+        running.get("b").onSuccess("ignored");
+
+        assertEquals(List.of(error), listener.failures);
+        assertEquals(0, listener.completions);
+    }
+
+    @Test
+    public void failure_thrownByStepFailsFlow() {
+        IllegalStateException error = new IllegalStateException("broken");
+        graph.add("a", 1000, true, (flowGraph, callback) -> {
+            throw error;
+        });
+
+        graph.start(listener);
+
+        assertEquals(List.of(error), listener.failures);
+    }
+
+    @Test
+    public void cancel_silencesResultsAndDeadlines() {
+        graph.add("a", 1000, true, step("a"))
+            .add("b", 1000, true, step("b"));
+        graph.start(listener);
+
+        graph.cancel();
+        running.get("a").onSuccess("ignored");
+        idleFor(2000);
+
+        assertEquals(0, listener.completions);
+        assertEquals(0, listener.failures.size());
+    }
+
+    /** A step that records its start and leaves its callback to the test. */
+    private FlutterBraintreeFlowGraph.Step step(String name) {
+        return (flowGraph, callback) -> {
+            started.add(name);
+            running.put(name, callback);
+        };
+    }
+
+    private static void idleFor(long millis) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(millis));
+    }
+
+    private static class RecordingListener implements FlutterBraintreeFlowGraph.Listener {
+        int completions = 0;
+        final List<Exception> failures = new ArrayList<>();
+
+        @Override
+        public void onComplete(FlutterBraintreeFlowGraph graph) {
+            completions++;
+        }
+
+        @Override
+        public void onFailure(Exception error) {
+            failures.add(error);
+        }
+    }
+}
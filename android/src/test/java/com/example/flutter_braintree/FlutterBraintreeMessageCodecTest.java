@@ -0,0 +1,184 @@
+package com.example.flutter_braintree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.StandardMessageCodec;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class FlutterBraintreeMessageCodecTest {
+
+    private static final FlutterBraintreeMessageCodec codec = FlutterBraintreeMessageCodec.INSTANCE;
+
+    @Test
+    public void decode_readsCardRequest() {
+        ByteBuffer message = cardRequest(FlutterBraintreeMessageCodec.SCHEMA_VERSION,
+            "4111111111111111", "12", "2030", "123", null);
+
+        Object value = codec.decodeMessage(message);
+
+        assertTrue(value instanceof FlutterBraintreeCardRequest);
+        FlutterBraintreeCardRequest card = (FlutterBraintreeCardRequest) value;
+        assertEquals("4111111111111111", card.cardNumber);
+        assertEquals("12", card.expirationMonth);
+        assertEquals("2030", card.expirationYear);
+        assertEquals("123", card.cvv);
+        assertNull(card.cardholderName);
+    }
+
+    @Test
+    public void decode_rejectsSchemaVersionMismatch() {
+        ByteBuffer message = cardRequest(FlutterBraintreeMessageCodec.SCHEMA_VERSION + 1,
+            "4111111111111111", "12", "2030", "123", null);
+
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> codec.decodeMessage(message));
+        assertTrue(error.getMessage().contains("schema version"));
+    }
+
+    @Test
+    public void decode_rejectsFieldOfWrongType() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(128);
+        stream.write(FlutterBraintreeMessageCodec.SCHEMA_VERSION);
+        codec.writeValue(stream, 4111);
+        for (int i = 0; i < 4; i++) {
+            codec.writeValue(stream, null);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decodeMessage(wrap(stream)));
+    }
+
+    @Test
+    public void decode_keepsPlainMaps() {
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("authorization", "token");
+        arguments.put("fields", Arrays.asList("billing"));
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        codec.writeValue(stream, arguments);
+
+        assertEquals(arguments, codec.decodeMessage(wrap(stream)));
+    }
+
+    @Test
+    public void decodeMethodCall_passesCardRequestArguments() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        codec.writeValue(stream, "tokenizeCreditCard");
+        writeCardRequest(stream, FlutterBraintreeMessageCodec.SCHEMA_VERSION, "4111111111111111", "12", "2030", "123", "Jane");
+
+        MethodCall call = FlutterBraintreeMessageCodec.METHOD_CODEC.decodeMethodCall(wrap(stream));
+
+        assertEquals("tokenizeCreditCard", call.method);
+        assertEquals("Jane", ((FlutterBraintreeCardRequest) call.arguments).cardholderName);
+    }
+
+    @Test
+    public void decodeMethodCall_reportsUndecodableArguments() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        codec.writeValue(stream, "tokenizeCreditCard");
+        writeCardRequest(stream, FlutterBraintreeMessageCodec.SCHEMA_VERSION + 1, "4111111111111111", "12", "2030", "123", null);
+
+        MethodCall call = FlutterBraintreeMessageCodec.METHOD_CODEC.decodeMethodCall(wrap(stream));
+
+        assertEquals("tokenizeCreditCard", call.method);
+        assertTrue(call.arguments instanceof FlutterBraintreeMessageCodec.DecodeError);
+        assertTrue(((FlutterBraintreeMessageCodec.DecodeError) call.arguments).message.contains("schema version"));
+    }
+
+    @Test
+    public void encode_writesNonceResultFieldsInOrder() {
+        FlutterBraintreeNonceResult result = nonceResult(0);
+
+        List<Object> written = readNonceResult(result);
+
+        assertEquals(Arrays.asList(
+            "nonce", true, "Visa", "ending in 11", null, "Visa", "11", "Visa", "device", false), written);
+    }
+
+    @Test
+    public void encode_appendsBillingOnlyWhenProjected() {
+        FlutterBraintreeNonceResult result = nonceResult(FlutterBraintreeNonceResult.FIELD_BILLING);
+        result.billingInfo[0] = "Jane";
+        result.billingInfo[6] = "12345";
+
+        List<Object> written = readNonceResult(result);
+
+        assertEquals(10 + FlutterBraintreeNonceResult.BILLING_KEYS.length, written.size());
+        assertEquals(true, written.get(9));
+        assertEquals("Jane", written.get(10));
+        assertEquals("12345", written.get(16));
+        assertNull(written.get(17));
+    }
+
+    private static FlutterBraintreeNonceResult nonceResult(int fields) {
+        FlutterBraintreeNonceResult result = new FlutterBraintreeNonceResult();
+        result.nonce = "nonce";
+        result.isDefault = true;
+        result.typeLabel = "Visa";
+        result.description = "ending in 11";
+        result.cardType = "Visa";
+        result.lastTwo = "11";
+        result.binBrand = "Visa";
+        result.deviceData = "device";
+        result.fields = fields;
+        return result;
+    }
+
+    /** Checks the type and version bytes and returns the values that follow them. */
+    private static List<Object> readNonceResult(FlutterBraintreeNonceResult result) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        codec.writeValue(stream, result);
+        ByteBuffer buffer = wrap(stream);
+
+        assertEquals(129, buffer.get() & 0xff);
+        assertEquals(FlutterBraintreeMessageCodec.SCHEMA_VERSION, buffer.get() & 0xff);
+        List<Object> values = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            values.add(StandardReader.INSTANCE.read(buffer));
+        }
+        return values;
+    }
+
+    private static ByteBuffer cardRequest(int version, String number, String month, String year, String cvv, String name) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        writeCardRequest(stream, version, number, month, year, cvv, name);
+        return wrap(stream);
+    }
+
+    /** Writes a card request the way the Dart codec does. */
+    private static void writeCardRequest(ByteArrayOutputStream stream, int version, String... fields) {
+        stream.write(128);
+        stream.write(version);
+        for (String field : fields) {
+            codec.writeValue(stream, field);
+        }
+    }
+
+    private static ByteBuffer wrap(ByteArrayOutputStream stream) {
+        return ByteBuffer.wrap(stream.toByteArray()).order(ByteOrder.nativeOrder());
+    }
+
+    /** Reads the standard values a nonce result is made of, one at a time. */
+    private static final class StandardReader extends StandardMessageCodec {
+        static final StandardReader INSTANCE = new StandardReader();
+
+        Object read(ByteBuffer buffer) {
+            return readValue(buffer);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.flutter_braintree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class FlutterBraintreeRequestKeyTest {
+
+    @Test
+    public void of_prefixesMethodToHexDigest() {
+        String key = FlutterBraintreeRequestKey.of("tokenizeCreditCard", Collections.singletonMap("amount", "10.00"));
+
+        assertTrue(key.startsWith("tokenizeCreditCard:"));
+        assertTrue(key.substring("tokenizeCreditCard:".length()).matches("[0-9a-f]{64}"));
+    }
+
+    @Test
+    public void of_ignoresMapInsertionOrder() {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("authorization", "token");
+        first.put("amount", "10.00");
+        first.put("fields", Arrays.asList("billing", "payer"));
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("fields", Arrays.asList("billing", "payer"));
+        second.put("amount", "10.00");
+        second.put("authorization", "token");
+
+        assertEquals(FlutterBraintreeRequestKey.of("m", first), FlutterBraintreeRequestKey.of("m", second));
+    }
+
+    @Test
+    public void of_differsByMethodAndValue() {
+        Map<String, Object> arguments = Collections.singletonMap("amount", "10.00");
+
+        assertNotEquals(FlutterBraintreeRequestKey.of("a", arguments), FlutterBraintreeRequestKey.of("b", arguments));
+        assertNotEquals(FlutterBraintreeRequestKey.of("m", arguments),
+            FlutterBraintreeRequestKey.of("m", Collections.singletonMap("amount", "10.01")));
+    }
+
+    @Test
+    public void of_keepsListOrder() {
+        assertNotEquals(FlutterBraintreeRequestKey.of("m", Arrays.asList("billing", "payer")),
+            FlutterBraintreeRequestKey.of("m", Arrays.asList("payer", "billing")));
+    }
+
+    @Test
+    public void of_separatesAdjacentStrings() {
+        assertNotEquals(FlutterBraintreeRequestKey.of("m", Collections.singletonMap("a", "bc")),
+            FlutterBraintreeRequestKey.of("m", Collections.singletonMap("ab", "c")));
+        assertNotEquals(FlutterBraintreeRequestKey.of("m", Arrays.asList("ab", "c")),
+            FlutterBraintreeRequestKey.of("m", Arrays.asList("a", "bc")));
+    }
+
+    @Test
+    public void of_distinguishesTypesAndNull() {
+        assertNotEquals(FlutterBraintreeRequestKey.of("m", "1"), FlutterBraintreeRequestKey.of("m", 1));
+        assertNotEquals(FlutterBraintreeRequestKey.of("m", "null"), FlutterBraintreeRequestKey.of("m", null));
+        Map<String, Object> withNull = new HashMap<>();
+        withNull.put("a", null);
+        assertNotEquals(FlutterBraintreeRequestKey.of("m", withNull), FlutterBraintreeRequestKey.of("m", Collections.emptyMap()));
+    }
+
+    @Test
+    public void of_hashesCardRequestsByTheirFields() {
+        FlutterBraintreeCardRequest card = new FlutterBraintreeCardRequest("4111111111111111", "12", "2030", "123", "Jane");
+        FlutterBraintreeCardRequest same = new FlutterBraintreeCardRequest("4111111111111111", "12", "2030", "123", "Jane");
+        FlutterBraintreeCardRequest other = new FlutterBraintreeCardRequest("4111111111111111", "12", "2030", "124", "Jane");
+
+        String key = FlutterBraintreeRequestKey.of("m", Collections.singletonMap("request", card));
+
+        assertEquals(key, FlutterBraintreeRequestKey.of("m", Collections.singletonMap("request", same)));
+        assertNotEquals(key, FlutterBraintreeRequestKey.of("m", Collections.singletonMap("request", other)));
+        assertFalse(key.contains("4111111111111111"));
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.flutter_braintree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class FlutterBraintreeRetryPolicyTest {
+
+    private static final AtomicInteger authorizations = new AtomicInteger();
+
+    private final FlutterBraintreeRetryPolicy policy = FlutterBraintreeRetryPolicy.getInstance();
+    private final String authorization = "authorization-" + authorizations.incrementAndGet();
+
+    @Test
+    public void isTransient_followsTheCauseChain() {
+        assertTrue(FlutterBraintreeRetryPolicy.isTransient(new IOException("offline")));
+        assertTrue(FlutterBraintreeRetryPolicy.isTransient(new RuntimeException(new IOException("offline"))));
+        assertFalse(FlutterBraintreeRetryPolicy.isTransient(new IllegalStateException("declined")));
+    }
+
+    @Test
+    public void execute_retriesTransientFailuresUpToMaxAttempts() throws Exception {
+        Outcome outcome = runFailing(new IOException("offline"));
+
+        assertEquals(FlutterBraintreeRetryPolicy.MAX_ATTEMPTS, outcome.attempts);
+    }
+
+    @Test
+    public void execute_failsNonTransientErrorsWithoutRetrying() throws Exception {
+        IllegalStateException declined = new IllegalStateException("declined");
+        Outcome outcome = runFailing(declined);
+
+        assertEquals(1, outcome.attempts);
+        assertSame(declined, outcome.error);
+    }
+
+    @Test
+    public void breaker_opensAfterConsecutiveTransientFailures() throws Exception {
+        openBreaker();
+
+        Outcome outcome = runFailing(new IOException("offline"));
+
+        assertEquals(0, outcome.attempts);
+        assertTrue(outcome.error instanceof IOException);
+    }
+
+    @Test
+    public void breaker_nonTransientAnswerResetsFailureCount() throws Exception {
+        runFailing(new IOException("offline"));
+        runFailing(new IllegalStateException("declined"));
+        runFailing(new IOException("offline"));
+
+        // Without the reset the six failures so far would have opened the breaker
+        assertEquals(1, runFailing(new IllegalStateException("declined")).attempts);
+    }
+
+    @Test
+    public void breaker_halfOpenLetsASingleProbeThrough() throws Exception {
+        openBreaker();
+        elapseOpenInterval();
+
+        AtomicReference<FlutterBraintreeRetryPolicy.Callback<Object>> probe = new AtomicReference<>();
+        policy.execute(authorization, probe::set, new Result());
+        assertNotNull(probe.get());
+
+        // A second call while the probe is pending fails fast
+        assertEquals(0, runFailing(new IOException("offline")).attempts);
+
+        probe.get().onSuccess("ok");
+        assertEquals(1, runFailing(new IllegalStateException("declined")).attempts);
+    }
+
+    @Test
+    public void breaker_failedProbeOpensAgain() throws Exception {
+        openBreaker();
+        elapseOpenInterval();
+
+        AtomicReference<FlutterBraintreeRetryPolicy.Callback<Object>> probe = new AtomicReference<>();
+        Result probeResult = new Result();
+        policy.execute(authorization, probe::set, probeResult);
+        probe.get().onFailure(new IOException("offline"));
+        assertTrue(probeResult.await().error instanceof IOException);
+
+        assertEquals(0, runFailing(new IOException("offline")).attempts);
+    }
+
+    @Test
+    public void breaker_nonTransientProbeAnswerCloses() throws Exception {
+        openBreaker();
+        elapseOpenInterval();
+
+        assertEquals(1, runFailing(new IllegalStateException("declined")).attempts);
+        assertEquals(1, runFailing(new IllegalStateException("declined")).attempts);
+    }
+
+    /** Runs calls that fail transiently until the breaker opens. */
+    private void openBreaker() throws Exception {
+        int failures = 0;
+        while (failures < FlutterBraintreeRetryPolicy.FAILURE_THRESHOLD) {
+            failures += runFailing(new IOException("offline")).attempts;
+        }
+    }
+
+    private static void elapseOpenInterval() {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(FlutterBraintreeRetryPolicy.OPEN_MS + 1));
+    }
+
+    /** Executes a call whose every attempt fails with {@code error}, and waits for its outcome. */
+    private Outcome runFailing(Exception error) throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        Result result = new Result();
+        policy.execute(authorization, callback -> {
+            attempts.incrementAndGet();
+            callback.onFailure(error);
+        }, result);
+        Outcome outcome = result.await();
+        outcome.attempts = attempts.get();
+        return outcome;
+    }
+
+    private static class Outcome {
+        Exception error;
+        int attempts;
+    }
+
+    private static class Result implements FlutterBraintreeRetryPolicy.Callback<Object> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final Outcome outcome = new Outcome();
+
+        @Override
+        public void onSuccess(Object value) {
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(Exception error) {
+            outcome.error = error;
+            done.countDown();
+        }
+
+        Outcome await() throws InterruptedException {
+            assertTrue("no outcome within 10s", done.await(10, TimeUnit.SECONDS));
+            return outcome;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import 'package:flutter/foundation.dart';
+import 'package:flutter/services.dart';
+
+import 'request.dart';
+import 'result.dart';
+
+/// Message codec of the `flutter_braintree.custom` channel on Android.
+///
+/// Writes [BraintreeCreditCardRequest]s and reads [BraintreePaymentMethodNonce]s
+/// as typed values instead of maps. Each typed value starts with a schema
+/// version that must match the plugin's `FlutterBraintreeMessageCodec`;
+/// everything else uses the standard encoding.
+class BraintreeMessageCodec extends StandardMessageCodec {
+  const BraintreeMessageCodec();
+
+  static const int schemaVersion = 1;
+
+  static const int _kCardRequest = 128;
+  static const int _kNonceResult = 129;
+
+  static const List<String> _kBillingKeys = [
+    'givenName',
+    'phoneNumber',
+    'streetAddress',
+    'extendedAddress',
+    'locality',
+    'region',
+    'postalCode',
+    'countryCodeAlpha2',
+  ];
+
+  @override
+  void writeValue(WriteBuffer buffer, Object? value) {
+    if (value is BraintreeCreditCardRequest) {
+      buffer.putUint8(_kCardRequest);
+      buffer.putUint8(schemaVersion);
+      writeValue(buffer, value.cardNumber);
+      writeValue(buffer, value.expirationMonth);
+      writeValue(buffer, value.expirationYear);
+      writeValue(buffer, value.cvv);
+      writeValue(buffer, value.cardholderName);
+    } else {
+      super.writeValue(buffer, value);
+    }
+  }
+
+  @override
+  Object? readValueOfType(int type, ReadBuffer buffer) {
+    switch (type) {
+      case _kNonceResult:
+        final version = buffer.getUint8();
+        if (version != schemaVersion) {
+          throw FormatException('Unsupported message schema version $version');
+        }
+        final nonce = readValue(buffer) as String?;
+        final isDefault = readValue(buffer) as bool?;
+        final typeLabel = readValue(buffer) as String?;
+        final description = readValue(buffer) as String?;
+        final paypalPayerId = readValue(buffer) as String?;
+        final cardType = readValue(buffer) as String?;
+        final lastTwo = readValue(buffer) as String?;
+        final binBrand = readValue(buffer) as String?;
+        final deviceData = readValue(buffer) as String?;
+        final billingInfo = <String, dynamic>{};
+        if (readValue(buffer) == true) {
+          for (final key in _kBillingKeys) {
+            billingInfo[key] = readValue(buffer);
+          }
+        }
+        return BraintreePaymentMethodNonce(
+          nonce: nonce ?? '',
+          typeLabel: typeLabel ?? '',
+          description: description ?? '',
+          isDefault: isDefault == true,
+          paypalPayerId: paypalPayerId,
+          deviceData: deviceData,
+          billingInfo: billingInfo,
+          binBrand: binBrand,
+          cardType: cardType,
+          lastTwo: lastTwo,
+        );
+      default:
+        return super.readValueOfType(type, buffer);
+    }
+  }
+}
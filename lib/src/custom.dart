@@ -1,11 +1,35 @@
+import 'dart:async';
+import 'dart:io';
+
 import 'package:flutter/services.dart';
 
+import 'codec.dart';
 import 'request.dart';
 import 'result.dart';
 
 class Braintree {
-  static const MethodChannel _kChannel =
-      const MethodChannel('flutter_braintree.custom');
+  // Card requests and nonce results travel as typed values on Android; the
+  // iOS plugin only speaks the standard codec.
+  static final MethodChannel _kChannel = MethodChannel(
+      'flutter_braintree.custom',
+      Platform.isAndroid
+          ? const StandardMethodCodec(BraintreeMessageCodec())
+          : const StandardMethodCodec());
+
+  static const EventChannel _kBatchChannel =
+      const EventChannel('flutter_braintree.custom/batch');
+
+  static final Stream<dynamic> _batchEvents =
+      _kBatchChannel.receiveBroadcastStream();
+
+  static const EventChannel _kProgressChannel =
+      const EventChannel('flutter_braintree.custom/progress');
+
+  static final Stream<BraintreeFlowProgress> _flowProgress = _kProgressChannel
+      .receiveBroadcastStream()
+      .map((event) => BraintreeFlowProgress.fromJson(event));
+
+  static int _nextBatchId = 0;
 
   const Braintree._();
 
@@ -14,17 +38,88 @@ class Braintree {
   /// [authorization] must be either a valid client token or a valid tokenization key.
   /// [request] should contain all the credit card information necessary for tokenization.
   ///
+  /// Only the optional [fields] asked for are built on Android; all of them
+  /// are returned when it is `null`.
+  ///
   /// Returns a [Future] that resolves to a [BraintreePaymentMethodNonce] if the tokenization was successful.
   static Future<BraintreePaymentMethodNonce?> tokenizeCreditCard(
     String authorization,
-    BraintreeCreditCardRequest request,
-  ) async {
+    BraintreeCreditCardRequest request, {
+    Set<BraintreeNonceField>? fields,
+  }) async {
     final result = await _kChannel.invokeMethod('tokenizeCreditCard', {
       'authorization': authorization,
-      'request': request.toJson(),
+      'request': _cardArgument(request),
+      'fields': _fieldsArgument(fields),
     });
     if (result == null) return null;
-    return BraintreePaymentMethodNonce.fromJson(result);
+    return _nonceFromResult(result);
+  }
+
+  /// Validates a credit card locally, without contacting the gateway.
+  ///
+  /// Checks the number's checksum and length for its brand, the expiry date
+  /// and the CVV length. Cheap enough to call as the user types. A missing or
+  /// malformed number, a failed checksum or a bad expiry also makes
+  /// [tokenizeCreditCard] fail with an `invalid_card` error whose details hold
+  /// the field errors; length and CVV codes are advisory. Android only.
+  static Future<BraintreeCardValidation> validateCard(
+    BraintreeCreditCardRequest request,
+  ) async {
+    final result = await _kChannel.invokeMethod('validateCard', {
+      'request': _cardArgument(request),
+    });
+    return BraintreeCardValidation.fromJson(result);
+  }
+
+  /// Detects the brand of [cardNumber] from a bundled BIN range table, e.g.
+  /// `'Visa'`, without contacting the gateway.
+  ///
+  /// Works on partial input as it is typed and returns `null` until the
+  /// number is long enough to tell. Android only.
+  static Future<String?> detectCardBrand(String cardNumber) async {
+    return await _kChannel.invokeMethod('detectCardBrand', {
+      'cardNumber': cardNumber,
+    });
+  }
+
+  /// Tokenizes several credit cards at once.
+  ///
+  /// [authorization] must be either a valid client token or a valid tokenization key.
+  /// At most [maxConcurrency] cards are tokenized at the same time.
+  ///
+  /// Returns a [Stream] that emits a [BraintreeCardBatchResult] for each card as soon as
+  /// it finishes, in completion order, and closes once every card is done. Android only.
+  static Stream<BraintreeCardBatchResult> tokenizeCreditCards(
+    String authorization,
+    List<BraintreeCreditCardRequest> requests, {
+    int maxConcurrency = 4,
+    Set<BraintreeNonceField>? fields,
+  }) {
+    final batchId = _nextBatchId++;
+    late final StreamSubscription<dynamic> subscription;
+    final controller = StreamController<BraintreeCardBatchResult>(
+      onCancel: () => subscription.cancel(),
+    );
+    subscription = _batchEvents
+        .where((event) => event['batchId'] == batchId)
+        .listen((event) =>
+            controller.add(BraintreeCardBatchResult.fromJson(event)));
+    _kChannel.invokeMethod('tokenizeCreditCards', {
+      'authorization': authorization,
+      'batchId': batchId,
+      'requests': requests.map(_cardArgument).toList(),
+      'maxConcurrency': maxConcurrency,
+      'fields': _fieldsArgument(fields),
+    }).then((_) {
+      subscription.cancel();
+      controller.close();
+    }, onError: (Object error) {
+      subscription.cancel();
+      controller.addError(error);
+      controller.close();
+    });
+    return controller.stream;
   }
 
   /// Requests a PayPal payment method nonce.
@@ -36,14 +131,16 @@ class Braintree {
   /// or `null` if the user canceled the Vault or Checkout flow.
   static Future<BraintreePaymentMethodNonce?> requestPaypalNonce(
     String authorization,
-    BraintreePayPalRequest request,
-  ) async {
+    BraintreePayPalRequest request, {
+    Set<BraintreeNonceField>? fields,
+  }) async {
     final result = await _kChannel.invokeMethod('requestPaypalNonce', {
       'authorization': authorization,
       'request': request.toJson(),
+      'fields': _fieldsArgument(fields),
     });
     if (result == null) return null;
-    return BraintreePaymentMethodNonce.fromJson(result);
+    return _nonceFromResult(result);
   }
 
   /// Starts threeDSecureFlow for credit card payment.
@@ -54,14 +151,46 @@ class Braintree {
   /// Returns a [Future] that resolves to a [BraintreePaymentMethodNonce] if the tokenization was successful.
   static Future<BraintreePaymentMethodNonce?> startThreeDSecureFlow(
     String authorization,
-    BraintreeThreeDSecureRequest request,
-  ) async {
+    BraintreeThreeDSecureRequest request, {
+    Set<BraintreeNonceField>? fields,
+  }) async {
     final result = await _kChannel.invokeMethod('startThreeDSecureFlow', {
       'authorization': authorization,
       'request': request.toJson(),
+      'fields': _fieldsArgument(fields),
     });
     if (result == null) return null;
-    return BraintreePaymentMethodNonce.fromJson(result);
+    return _nonceFromResult(result);
+  }
+
+  /// Tokenizes a credit card and verifies the resulting nonce with 3D Secure in
+  /// a single flow.
+  ///
+  /// [authorization] must be either a valid client token or a valid tokenization key.
+  /// [amount], [email] and [billingAddress] describe the transaction to verify.
+  ///
+  /// Returns a [Future] that resolves to the verified [BraintreePaymentMethodNonce],
+  /// or `null` if the user canceled the challenge. Android only.
+  static Future<BraintreePaymentMethodNonce?> tokenizeAndVerifyCard(
+    String authorization,
+    BraintreeCreditCardRequest request, {
+    required String amount,
+    String? email,
+    BraintreeBillingAddress? billingAddress,
+    Set<BraintreeNonceField>? fields,
+  }) async {
+    final result = await _kChannel.invokeMethod('tokenizeAndVerifyCard', {
+      'authorization': authorization,
+      'request': _cardArgument(request),
+      'fields': _fieldsArgument(fields),
+      'verification': {
+        'amount': amount,
+        'email': email,
+        'billingAddress': billingAddress?.toJson(),
+      },
+    });
+    if (result == null) return null;
+    return _nonceFromResult(result);
   }
 
   /// Checks if Google Pay is ready for the given authorization.
@@ -84,13 +213,15 @@ class Braintree {
   /// Returns a [Future] that resolves to a [BraintreePaymentMethodNonce] if the payment was successful.
   static Future<BraintreePaymentMethodNonce?> startGooglePaymentFlow(
     String authorization,
-    BraintreeGooglePaymentRequest paymentRequest,
-  ) async {
+    BraintreeGooglePaymentRequest paymentRequest, {
+    Set<BraintreeNonceField>? fields,
+  }) async {
     dynamic result;
     try {
       result = await _kChannel.invokeMethod('startGooglePaymentFlow', {
         'authorization': authorization,
         'request': paymentRequest.toJson(),
+        'fields': _fieldsArgument(fields),
       });
     } on PlatformException catch (e) {
       throw 'Failed to start Google Payment flow: ${e.message}';
@@ -98,7 +229,127 @@ class Braintree {
     print('startGooglePaymentFlow result: $result');
     if (result == null) return null;
 
-    return BraintreePaymentMethodNonce.fromJson(result);
+    return _nonceFromResult(result);
+  }
+
+  /// Drops the cached native clients and device data for [authorization], or
+  /// for every authorization if it is `null`.
+  ///
+  /// Call this when a client token is replaced so the next payment does not
+  /// reuse a configuration fetched with the old one. Android only.
+  static Future<void> invalidateClients([String? authorization]) async {
+    await _kChannel.invokeMethod('invalidateClients', {
+      'authorization': authorization,
+    });
+  }
+
+  /// Starts collecting device data for [authorization] ahead of a payment.
+  ///
+  /// The collected value is reused by the next flows for the same authorization,
+  /// so calling this when the checkout screen opens keeps it off the payment path.
+  /// Android only.
+  static Future<void> prefetchDeviceData(String authorization) async {
+    await _kChannel.invokeMethod('prefetchDeviceData', {
+      'authorization': authorization,
+    });
+  }
+
+  /// Builds clients, collects device data and checks Google Pay readiness for
+  /// [authorization] ahead of the first payment.
+  ///
+  /// [flows] narrows the work to some of `card`, `threeDSecure`, `payPal` and
+  /// `googlePay`; all are warmed when omitted. The PayPal client is only warmed
+  /// when [returnUrl] is given. Returns what was warmed, with the keys `clients`,
+  /// `deviceData` and, when Google Pay was warmed, `googlePayReady`.
+  /// Android only.
+  static Future<Map<String, dynamic>> warmUp(
+    String authorization, {
+    List<String>? flows,
+    String? returnUrl,
+  }) async {
+    final result = await _kChannel.invokeMethod('warmUp', {
+      'authorization': authorization,
+      'flows': flows,
+      'returnUrl': returnUrl,
+    });
+    return Map<String, dynamic>.from(result);
+  }
+
+  /// Milestones of running payment flows as they are reached, e.g.
+  /// `'authRequestCreated'`, `'uiLaunched'`, `'returnedToApp'` or `'tokenizing'`.
+  /// Android only.
+  static Stream<BraintreeFlowProgress> get flowProgress => _flowProgress;
+
+  /// Cancels the in-flight call with [requestId], as reported by [flowProgress],
+  /// or every in-flight call when it is omitted.
+  ///
+  /// Canceled calls complete with `null` and their payment screens are closed.
+  /// Returns how many calls were canceled. Android only.
+  static Future<int> cancel([int? requestId]) async {
+    final result = await _kChannel.invokeMethod('cancel', {
+      'requestId': requestId,
+    });
+    return result as int;
+  }
+
+  /// Sets how long a flow may stay in each stage, e.g. `'uiLaunched'`, before its
+  /// call fails with a `timeout` error. [Duration.zero] disables the deadline for
+  /// that stage. Android only.
+  static Future<void> setStageTimeouts(Map<String, Duration> timeouts) async {
+    await _kChannel.invokeMethod('setStageTimeouts', {
+      'timeouts': timeouts
+          .map((stage, timeout) => MapEntry(stage, timeout.inMilliseconds)),
+    });
+  }
+
+  /// Returns the stage timings of payment flows that finished since the last call,
+  /// oldest first. Android only.
+  static Future<List<BraintreeFlowTrace>> getFlowTraces() async {
+    final result = await _kChannel.invokeMethod('getFlowTraces');
+    return (result as List<Object?>)
+        .map((trace) => BraintreeFlowTrace.fromJson(trace))
+        .toList();
+  }
+
+  /// Sets which plugin events are kept in the in-memory recorder, and whether they
+  /// are also mirrored to logcat. Android only.
+  static Future<void> setLogLevel(BraintreeLogLevel level,
+      {bool logcat = false}) async {
+    await _kChannel.invokeMethod('setLogLevel', {
+      'level': level.rawValue,
+      'logcat': logcat,
+    });
+  }
+
+  /// Sets where 3D Secure and Google Pay flows run. Android only.
+  ///
+  /// [BraintreeLaunchMode.host] needs a `FlutterFragmentActivity` and this
+  /// opt-in in the app's `AndroidManifest.xml`, inside `<application>`:
+  ///
+  /// ```xml
+  /// <meta-data
+  ///     android:name="com.example.flutter_braintree.HOST_LAUNCH_MODE"
+  ///     android:value="true" />
+  /// ```
+  ///
+  /// With the opt-in, host mode is also the default. Without it, selecting
+  /// host mode fails with a [PlatformException].
+  static Future<void> setLaunchMode(BraintreeLaunchMode mode) async {
+    await _kChannel.invokeMethod('setLaunchMode', {
+      'mode': mode.rawValue,
+    });
+  }
+
+  /// Logs disk and network access on the main thread to logcat, on top of the
+  /// app's own StrictMode policy. Only takes effect in debuggable builds. Android only.
+  static Future<void> enableStrictMode() async {
+    await _kChannel.invokeMethod('enableStrictMode');
+  }
+
+  /// Returns the recorded plugin events, oldest first. Android only.
+  static Future<List<String>> dumpLogs() async {
+    final result = await _kChannel.invokeMethod('dumpLogs');
+    return (result as List<Object?>).cast<String>();
   }
 
   /// Checks if Apple Pay is ready for the given authorization.
@@ -136,4 +387,15 @@ class Braintree {
     print(result);
     return BraintreePaymentMethodNonce.fromJson(result);
   }
+
+  static Object _cardArgument(BraintreeCreditCardRequest request) =>
+      Platform.isAndroid ? request : request.toJson();
+
+  static BraintreePaymentMethodNonce _nonceFromResult(dynamic result) =>
+      result is BraintreePaymentMethodNonce
+          ? result
+          : BraintreePaymentMethodNonce.fromJson(result);
+
+  static List<String>? _fieldsArgument(Set<BraintreeNonceField>? fields) =>
+      fields?.map((field) => field.rawValue).toList();
 }
@@ -200,6 +200,7 @@ class BraintreePayPalRequest {
     this.payPalPaymentIntent = PayPalPaymentIntent.authorize,
     this.payPalPaymentUserAction = PayPalPaymentUserAction.default_,
     this.returnUrl,
+    this.prewarmBrowser = false,
   });
 
   /// Amount of the transaction. If [amount] is `null`, PayPal will use the billing agreement (Vault) flow.
@@ -226,6 +227,10 @@ class BraintreePayPalRequest {
   /// should be set for android.
   final String? returnUrl;
 
+  /// Whether to start the Custom Tabs browser while the PayPal page is being
+  /// prepared, so it opens faster. Android only.
+  final bool prewarmBrowser;
+
   /// Converts this request object into a JSON-encodable format.
   Map<String, dynamic> toJson() => {
         if (amount != null) 'amount': amount,
@@ -236,6 +241,7 @@ class BraintreePayPalRequest {
         'payPalPaymentIntent': payPalPaymentIntent.name,
         'payPalPaymentUserAction': payPalPaymentUserAction.name,
         if (returnUrl != null) 'returnUrl': returnUrl,
+        'prewarmBrowser': prewarmBrowser,
       };
 }
 
@@ -264,6 +270,82 @@ enum PayPalPaymentIntent {
   authorize,
 }
 
+enum BraintreeLogLevel {
+  /// Records every plugin event.
+  debug,
+
+  /// Records informational events, warnings and errors.
+  info,
+
+  /// Records warnings and errors. This is the default.
+  warn,
+
+  /// Records errors only.
+  error,
+
+  /// Records nothing.
+  none,
+}
+
+/// Optional parts of a [BraintreePaymentMethodNonce]. The nonce, type and
+/// device data are always returned.
+enum BraintreeNonceField {
+  /// The billing address, where the payment method provides one.
+  billing,
+
+  /// The payer's email and PayPal payer id.
+  payer,
+}
+
+extension BraintreeNonceFieldExtension on BraintreeNonceField {
+  String get rawValue {
+    switch (this) {
+      case BraintreeNonceField.billing:
+        return 'billing';
+      case BraintreeNonceField.payer:
+        return 'payer';
+    }
+  }
+}
+
+/// Where 3D Secure and Google Pay flows run on Android.
+enum BraintreeLaunchMode {
+  /// In a separate plugin activity started for each flow. This is the default.
+  trampoline,
+
+  /// Directly on the Flutter activity, which must be a `FlutterFragmentActivity`.
+  /// PayPal keeps using the plugin activity.
+  host,
+}
+
+extension BraintreeLaunchModeExtension on BraintreeLaunchMode {
+  String get rawValue {
+    switch (this) {
+      case BraintreeLaunchMode.trampoline:
+        return 'trampoline';
+      case BraintreeLaunchMode.host:
+        return 'host';
+    }
+  }
+}
+
+extension BraintreeLogLevelExtension on BraintreeLogLevel {
+  int get rawValue {
+    switch (this) {
+      case BraintreeLogLevel.debug:
+        return 3;
+      case BraintreeLogLevel.info:
+        return 4;
+      case BraintreeLogLevel.warn:
+        return 5;
+      case BraintreeLogLevel.error:
+        return 6;
+      case BraintreeLogLevel.none:
+        return 0x7fffffff;
+    }
+  }
+}
+
 enum ApplePaySummaryItemType {
   /// The amount is final.
   final_,
@@ -30,6 +30,9 @@ class BraintreePaymentMethodNonce {
     this.paypalPayerId,
     this.deviceData,
     this.billingInfo,
+    this.binBrand,
+    this.cardType,
+    this.lastTwo,
   });
 
   factory BraintreePaymentMethodNonce.fromJson(dynamic source) {
@@ -78,6 +81,9 @@ class BraintreePaymentMethodNonce {
       paypalPayerId: data['paypalPayerId'] as String?,
       deviceData: data['deviceData'] as String?,
       billingInfo: resultBillingInfo,
+      binBrand: data['binBrand'] as String?,
+      cardType: data['cardType'] as String?,
+      lastTwo: data['lastTwo'] as String?,
     );
   }
 
@@ -102,4 +108,156 @@ class BraintreePaymentMethodNonce {
 
   /// Billing info for the payment method
   final Map<String, dynamic>? billingInfo;
+
+  /// Card brand detected locally from the entered card number, e.g. `'Visa'`.
+  /// Only set for card flows on Android.
+  final String? binBrand;
+
+  /// Card network of a Google Pay card, e.g. `'Visa'`. Android only.
+  final String? cardType;
+
+  /// Last two digits of a Google Pay card. Android only.
+  final String? lastTwo;
+}
+
+class BraintreeCardBatchResult {
+  const BraintreeCardBatchResult({
+    required this.index,
+    this.nonce,
+    this.error,
+    this.fieldErrors,
+  });
+
+  factory BraintreeCardBatchResult.fromJson(dynamic source) {
+    final nonce = source['nonce'];
+    final fieldErrors = source['fieldErrors'] as Map<Object?, Object?>?;
+    return BraintreeCardBatchResult(
+      index: source['index'] as int,
+      nonce: nonce == null ? null : BraintreePaymentMethodNonce.fromJson(nonce),
+      error: source['error'] as String?,
+      fieldErrors: fieldErrors?.map(
+          (key, value) => MapEntry(key.toString(), value.toString())),
+    );
+  }
+
+  /// Position of the card in the list passed to [Braintree.tokenizeCreditCards].
+  final int index;
+
+  /// The nonce for this card, or `null` if tokenization failed.
+  final BraintreePaymentMethodNonce? nonce;
+
+  /// The error message if tokenization failed.
+  final String? error;
+
+  /// Field errors if the card failed local validation and was never sent,
+  /// as in [BraintreeCardValidation.errors].
+  final Map<String, String>? fieldErrors;
+}
+
+class BraintreeCardValidation {
+  const BraintreeCardValidation({
+    this.brand,
+    required this.errors,
+  });
+
+  factory BraintreeCardValidation.fromJson(dynamic source) {
+    final errors = (source['errors'] as Map<Object?, Object?>?) ?? {};
+    return BraintreeCardValidation(
+      brand: source['brand'] as String?,
+      errors: errors
+          .map((key, value) => MapEntry(key.toString(), value.toString())),
+    );
+  }
+
+  /// Brand detected from the card number, e.g. `'Visa'`, or `null` if unknown.
+  final String? brand;
+
+  /// Error code per field, keyed by the [BraintreeCreditCardRequest] field
+  /// name. Codes are `required`, `invalid`, `length`, `checksum` and `expired`.
+  final Map<String, String> errors;
+
+  /// True if no field has an error.
+  bool get isValid => errors.isEmpty;
+}
+
+class BraintreeFlowTrace {
+  const BraintreeFlowTrace({
+    required this.requestId,
+    required this.method,
+    required this.outcome,
+    required this.stages,
+  });
+
+  factory BraintreeFlowTrace.fromJson(dynamic source) {
+    return BraintreeFlowTrace(
+      requestId: source['requestId'] as int,
+      method: source['method'] as String,
+      outcome: source['outcome'] as String?,
+      stages: (source['stages'] as List<Object?>)
+          .map((stage) => BraintreeFlowStage.fromJson(stage))
+          .toList(),
+    );
+  }
+
+  /// Native id of the method call this trace belongs to.
+  final int requestId;
+
+  /// Channel method that started the flow, e.g. `'requestPaypalNonce'`.
+  final String method;
+
+  /// `'success'`, `'canceled'`, or the error code the flow completed with.
+  final String? outcome;
+
+  /// Stages in the order they were reached.
+  final List<BraintreeFlowStage> stages;
+}
+
+class BraintreeFlowStage {
+  const BraintreeFlowStage({
+    required this.stage,
+    required this.offset,
+  });
+
+  factory BraintreeFlowStage.fromJson(dynamic source) {
+    return BraintreeFlowStage(
+      stage: source['stage'] as String,
+      offset: Duration(microseconds: source['offsetMicros'] as int),
+    );
+  }
+
+  /// Stage name, e.g. `'authRequestCreated'` or `'tokenizeComplete'`.
+  final String stage;
+
+  /// Time since the method call was received.
+  final Duration offset;
+}
+
+class BraintreeFlowProgress {
+  const BraintreeFlowProgress({
+    required this.requestId,
+    required this.method,
+    required this.stage,
+    required this.offset,
+  });
+
+  factory BraintreeFlowProgress.fromJson(dynamic source) {
+    return BraintreeFlowProgress(
+      requestId: source['requestId'] as int,
+      method: source['method'] as String,
+      stage: source['stage'] as String,
+      offset: Duration(microseconds: source['offsetMicros'] as int),
+    );
+  }
+
+  /// Native id of the method call the flow belongs to.
+  final int requestId;
+
+  /// Channel method that started the flow, e.g. `'startGooglePaymentFlow'`.
+  final String method;
+
+  /// Stage that was just reached, e.g. `'uiLaunched'`.
+  final String stage;
+
+  /// Time since the method call was received.
+  final Duration offset;
 }